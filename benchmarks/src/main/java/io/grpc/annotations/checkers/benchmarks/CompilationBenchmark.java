@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers.benchmarks;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.scanner.ScannerSupplier;
+import io.grpc.annotations.checkers.ExperimentalApiChecker;
+import io.grpc.annotations.checkers.InternalChecker;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiles synthetic client code through javac and Error Prone, with and without the checkers,
+ * to measure what the plugin adds to a full compilation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompilationBenchmark {
+
+  @Param({"50"})
+  public int files;
+
+  @Param({"200"})
+  public int statementsPerFile;
+
+  @Param({"0", "10", "50"})
+  public int grpcPercent;
+
+  @Param({"true", "false"})
+  public boolean checkersEnabled;
+
+  private StandardJavaFileManager fileManager;
+  private List<JavaFileObject> clients;
+  private List<String> options;
+  private BaseErrorProneJavaCompiler compiler;
+
+  @Setup
+  public void setUp() throws IOException {
+    Path apiClasses = Compilations.compileApi();
+    Path output = Files.createTempDirectory("grpc-clients");
+    fileManager = Compilations.newFileManager();
+    clients = SyntheticSources.clients(files, statementsPerFile, grpcPercent);
+    options = Compilations.clientOptions(apiClasses, output);
+    // Keep the findings from failing the compilation, so that both variants generate class files.
+    options.add("-XepAllErrorsAsWarnings");
+    compiler = new BaseErrorProneJavaCompiler(checkersEnabled
+        ? ScannerSupplier.fromBugCheckerClasses(InternalChecker.class, ExperimentalApiChecker.class)
+        : ScannerSupplier.fromBugCheckerClasses());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileManager.close();
+  }
+
+  /** Returns the number of diagnostics, which includes one per reported usage. */
+  @Benchmark
+  public int compile() {
+    AtomicInteger diagnostics = new AtomicInteger();
+    boolean ok = compiler
+        .getTask(null, fileManager, diagnostic -> diagnostics.incrementAndGet(), options, null,
+            clients)
+        .call();
+    if (!ok) {
+      throw new IllegalStateException("Compilation failed");
+    }
+    return diagnostics.get();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers.benchmarks;
+
+import com.sun.tools.javac.api.JavacTool;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/** Helpers shared by the benchmarks. */
+final class Compilations {
+
+  private Compilations() {}
+
+  /** Returns a file manager for plain javac. */
+  static StandardJavaFileManager newFileManager() {
+    return JavacTool.create().getStandardFileManager(null, null, null);
+  }
+
+  /**
+   * Compiles the synthetic API with plain javac into a new temporary directory, so that client
+   * code sees it as class files the way it sees the real grpc-java jars.
+   */
+  static Path compileApi() throws IOException {
+    Path classes = Files.createTempDirectory("grpc-api");
+    List<String> errors = new ArrayList<>();
+    DiagnosticListener<JavaFileObject> listener = diagnostic -> {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(diagnostic.toString());
+      }
+    };
+    try (StandardJavaFileManager fileManager = newFileManager()) {
+      boolean ok = JavacTool.create()
+          .getTask(null, fileManager, listener,
+              Arrays.asList("-d", classes.toString(), "-proc:none"), null, SyntheticSources.api())
+          .call();
+      if (!ok) {
+        throw new IllegalStateException("Could not compile the synthetic API: " + errors);
+      }
+    }
+    return classes;
+  }
+
+  /** Returns the javac options for compiling client code against the API. */
+  static List<String> clientOptions(Path apiClasses, Path output) {
+    return new ArrayList<>(Arrays.asList(
+        "-classpath", apiClasses.toString(),
+        "-d", output.toString(),
+        "-proc:none"));
+  }
+}
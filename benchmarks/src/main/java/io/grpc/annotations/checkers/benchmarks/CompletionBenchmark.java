@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers.benchmarks;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.scanner.ScannerSupplier;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.code.Kinds.Kind;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.util.Context;
+import io.grpc.annotations.checkers.ExperimentalApiChecker;
+import io.grpc.annotations.checkers.InternalChecker;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiles synthetic client code once, after warming up, with and without the checkers, and
+ * counts the class files and packages javac completed, which is what reading annotations from
+ * owners can add to a compilation. The counts of the measured compilation are reported as the
+ * secondary results {@code completedClasses} and {@code completedPackages}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 1)
+public class CompletionBenchmark {
+
+  @Param({"50"})
+  public int files;
+
+  @Param({"200"})
+  public int statementsPerFile;
+
+  @Param({"0", "10", "50"})
+  public int grpcPercent;
+
+  @Param({"true", "false"})
+  public boolean checkersEnabled;
+
+  private StandardJavaFileManager fileManager;
+  private List<JavaFileObject> clients;
+  private List<String> options;
+  private BaseErrorProneJavaCompiler compiler;
+
+  /** The symbols completed by the compilation of an iteration; JMH sums them over iterations. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Completions {
+    public long completedClasses;
+    public long completedPackages;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      completedClasses = 0;
+      completedPackages = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    Path apiClasses = Compilations.compileApi();
+    Path output = Files.createTempDirectory("grpc-clients");
+    fileManager = Compilations.newFileManager();
+    clients = SyntheticSources.clients(files, statementsPerFile, grpcPercent);
+    options = Compilations.clientOptions(apiClasses, output);
+    options.add("-XepAllErrorsAsWarnings");
+    compiler = new BaseErrorProneJavaCompiler(checkersEnabled
+        ? ScannerSupplier.fromBugCheckerClasses(InternalChecker.class, ExperimentalApiChecker.class)
+        : ScannerSupplier.fromBugCheckerClasses());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileManager.close();
+  }
+
+  @Benchmark
+  public boolean compile(Completions completions) {
+    JavacTask task = (JavacTask)
+        compiler.getTask(null, fileManager, diagnostic -> {}, options, null, clients);
+    Context context = ((BasicJavacTask) task).getContext();
+    task.addTaskListener(new TaskListener() {
+      @Override
+      public void finished(TaskEvent event) {
+        if (event.getKind() == TaskEvent.Kind.COMPILATION) {
+          count(Symtab.instance(context), completions);
+        }
+      }
+    });
+    boolean ok = task.call();
+    if (!ok) {
+      throw new IllegalStateException("Compilation failed");
+    }
+    return ok;
+  }
+
+  private static void count(Symtab symtab, Completions completions) {
+    Set<Symbol> packages = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ClassSymbol c : symtab.getAllClasses()) {
+      if (c.classfile != null
+          && c.classfile.getKind() == JavaFileObject.Kind.CLASS
+          && c.isCompleted()) {
+        completions.completedClasses++;
+      }
+      for (Symbol s = c.owner; s != null; s = s.owner) {
+        if (s.kind == Kind.PCK && s.isCompleted()) {
+          packages.add(s);
+        }
+      }
+    }
+    completions.completedPackages += packages.size();
+  }
+}
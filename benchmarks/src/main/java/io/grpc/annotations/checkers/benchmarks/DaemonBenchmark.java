@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers.benchmarks;
+
+import io.grpc.annotations.checkers.CheckerDaemon;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaFileObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks one synthetic client file with a warm {@link CheckerDaemon}, as an editor does on each
+ * save, and samples the latency of each check. {@code changedFile} edits the file before every
+ * check, so each one compiles it; {@code unchangedFile} is answered from the daemon's results.
+ * The classpath holds the API classes and a directory of {@code classpathFiles} unrelated class
+ * files, such as the output directory of a large module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DaemonBenchmark {
+
+  @Param({"200"})
+  public int statementsPerFile;
+
+  @Param({"10"})
+  public int grpcPercent;
+
+  @Param({"0", "5000"})
+  public int classpathFiles;
+
+  private CheckerDaemon daemon;
+  private Path file;
+  private byte[][] versions;
+  private int checks;
+
+  @Setup
+  public void setUp() throws IOException {
+    Path apiClasses = Compilations.compileApi();
+    Path moduleClasses = Files.createTempDirectory("grpc-module");
+    byte[] classFile = Files.readAllBytes(apiClasses.resolve("io/grpc/Channel.class"));
+    for (int i = 0; i < classpathFiles; i++) {
+      Path padding = moduleClasses.resolve("p" + i / 100).resolve("C" + i + ".class");
+      Files.createDirectories(padding.getParent());
+      Files.write(padding, classFile);
+    }
+
+    JavaFileObject client = SyntheticSources.clients(1, statementsPerFile, grpcPercent).get(0);
+    String content = client.getCharContent(true).toString();
+    file = Files.createTempDirectory("grpc-client").resolve(new File(client.getName()).getName());
+    // two versions that differ in a comment, so that every edit changes the file's hash
+    versions = new byte[][] {
+        content.getBytes(StandardCharsets.UTF_8),
+        (content + "// edited\n").getBytes(StandardCharsets.UTF_8)};
+    Files.write(file, versions[0]);
+
+    daemon = new CheckerDaemon(Arrays.asList(
+        "-classpath", apiClasses + File.pathSeparator + moduleClasses,
+        "-XepAllErrorsAsWarnings"));
+    // the first check compiles the file; later checks of the unchanged file are cached
+    daemon.check(file);
+  }
+
+  @Benchmark
+  public List<String> changedFile() throws IOException {
+    Files.write(file, versions[++checks % 2]);
+    return check(false);
+  }
+
+  @Benchmark
+  public List<String> unchangedFile() {
+    return check(true);
+  }
+
+  private List<String> check(boolean cached) {
+    List<String> response = daemon.check(file);
+    String done = response.get(response.size() - 1);
+    if (!done.contains("\"cached\": " + cached)) {
+      throw new IllegalStateException("Unexpected response: " + done);
+    }
+    return response;
+  }
+}
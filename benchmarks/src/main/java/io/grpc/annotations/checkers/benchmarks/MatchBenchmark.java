@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers.benchmarks;
+
+import com.google.errorprone.ErrorProneOptions;
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.scanner.ErrorProneScanner;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.api.JavacTool;
+import io.grpc.annotations.checkers.ExperimentalApiChecker;
+import io.grpc.annotations.checkers.InternalChecker;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.StandardJavaFileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs only the checkers over compilation units that plain javac has already attributed, so the
+ * result is dominated by the per-node matching cost. The attributed trees, and therefore the
+ * checkers' per-compilation caches, are reused across invocations, so this measures the warm path.
+ * Run it with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MatchBenchmark {
+
+  @Param({"50"})
+  public int files;
+
+  @Param({"200"})
+  public int statementsPerFile;
+
+  @Param({"0", "10", "50"})
+  public int grpcPercent;
+
+  private StandardJavaFileManager fileManager;
+  private final List<CompilationUnitTree> units = new ArrayList<>();
+  private ErrorProneScanner scanner;
+  private VisitorState state;
+  private int found;
+
+  @Setup
+  public void setUp() throws IOException {
+    Path apiClasses = Compilations.compileApi();
+    Path output = Files.createTempDirectory("grpc-clients");
+    fileManager = Compilations.newFileManager();
+    JavacTask task = JavacTool.create().getTask(null, fileManager, null,
+        Compilations.clientOptions(apiClasses, output), null,
+        SyntheticSources.clients(files, statementsPerFile, grpcPercent));
+    for (CompilationUnitTree unit : task.parse()) {
+      units.add(unit);
+    }
+    task.analyze();
+    scanner = new ErrorProneScanner(new InternalChecker(), new ExperimentalApiChecker());
+    state = VisitorState.createConfiguredForCompilation(
+        ((BasicJavacTask) task).getContext(),
+        description -> found++,
+        scanner.severityMap(),
+        ErrorProneOptions.empty());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    fileManager.close();
+  }
+
+  /** Scans every unit once and returns the number of findings so far. */
+  @Benchmark
+  public int scanAllUnits() {
+    for (CompilationUnitTree unit : units) {
+      TreePath path = new TreePath(unit);
+      scanner.scan(path, state.withPath(path));
+    }
+    return found;
+  }
+}
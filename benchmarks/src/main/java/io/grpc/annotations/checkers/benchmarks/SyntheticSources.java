@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Generates a small gRPC-like API and client code that uses it with a configurable density.
+ */
+final class SyntheticSources {
+
+  private SyntheticSources() {}
+
+  /**
+   * Returns the API that client sources compile against: the two annotations, stable and annotated
+   * classes, an {@code @Internal} package, a stable method overridden in an {@code @Internal}
+   * class, and nested classes.
+   */
+  static List<JavaFileObject> api() {
+    List<JavaFileObject> sources = new ArrayList<>();
+    sources.add(source("io/grpc/Internal.java",
+        "package io.grpc;",
+        "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS)",
+        "public @interface Internal {}"));
+    sources.add(source("io/grpc/ExperimentalApi.java",
+        "package io.grpc;",
+        "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.CLASS)",
+        "public @interface ExperimentalApi {",
+        "  String value() default \"\";",
+        "}"));
+    sources.add(source("io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public static final int DEFAULT_PORT = 443;",
+        "  public String authority() { return \"\"; }",
+        "  @ExperimentalApi(\"https://github.com/grpc/grpc-java/issues/1\")",
+        "  public Channel withTuning(int value) { return this; }",
+        "}"));
+    sources.add(source("io/grpc/ServerCall.java",
+        "package io.grpc;",
+        "public abstract class ServerCall {",
+        "  public abstract void sendMessage(Object message);",
+        "}"));
+    sources.add(source("io/grpc/internal/package-info.java",
+        "@io.grpc.Internal",
+        "package io.grpc.internal;"));
+    sources.add(source("io/grpc/internal/ServerCallImpl.java",
+        "package io.grpc.internal;",
+        "@io.grpc.Internal",
+        "public class ServerCallImpl extends io.grpc.ServerCall {",
+        "  @Override public void sendMessage(Object message) {}",
+        "  public void internalOnly() {}",
+        "}"));
+    sources.add(source("io/grpc/Metadata.java",
+        "package io.grpc;",
+        "public final class Metadata {",
+        "  public static final class Key {",
+        "    public static Key of(String name) { return new Key(); }",
+        "  }",
+        "  @ExperimentalApi(\"https://github.com/grpc/grpc-java/issues/2\")",
+        "  public static final class BinaryKey {",
+        "    public static final String SUFFIX = \"-bin\";",
+        "  }",
+        "}"));
+    sources.add(source("io/grpc/internal/GrpcUtil.java",
+        "package io.grpc.internal;",
+        "@io.grpc.Internal",
+        "public final class GrpcUtil {",
+        "  public static final Timer TIMER_SERVICE = new Timer();",
+        "  public static final class Timer {",
+        "    public Object create() { return null; }",
+        "  }",
+        "}"));
+    return sources;
+  }
+
+  /**
+   * Returns client sources with the given shape.
+   *
+   * @param files number of compilation units
+   * @param statementsPerFile number of statements in each unit
+   * @param grpcPercent percentage of statements that reference the API, 0 to 100
+   */
+  static List<JavaFileObject> clients(int files, int statementsPerFile, int grpcPercent) {
+    Random random = new Random(files * 31 + statementsPerFile * 17 + grpcPercent);
+    List<JavaFileObject> sources = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      List<String> lines = new ArrayList<>();
+      lines.add("package example;");
+      lines.add("import io.grpc.Channel;");
+      lines.add("import io.grpc.Metadata;");
+      lines.add("import io.grpc.internal.ServerCallImpl;");
+      lines.add("import java.util.ArrayList;");
+      lines.add("import java.util.List;");
+      lines.add("public class Client" + i + " {");
+      lines.add("  static class Nested {");
+      lines.add("    Object key = Metadata.Key.of(\"nested\");");
+      lines.add("  }");
+      lines.add("  void run(Channel channel, ServerCallImpl call) {");
+      lines.add("    List<String> names = new ArrayList<>();");
+      lines.add("    StringBuilder sb = new StringBuilder();");
+      for (int j = 0; j < statementsPerFile; j++) {
+        lines.add("    " + statement(random, grpcPercent, j));
+      }
+      lines.add("  }");
+      lines.add("}");
+      sources.add(source("example/Client" + i + ".java", lines.toArray(new String[0])));
+    }
+    return sources;
+  }
+
+  private static String statement(Random random, int grpcPercent, int j) {
+    if (random.nextInt(100) >= grpcPercent) {
+      switch (j % 3) {
+        case 0:
+          return "names.add(String.valueOf(" + j + "));";
+        case 1:
+          return "sb.append(names.size()).append(Integer.toHexString(" + j + "));";
+        default:
+          return "System.out.println(Math.max(names.size(), " + j + "));";
+      }
+    }
+    switch (j % 6) {
+      case 0: // simple identifiers
+        return "System.out.println(channel.authority() + Channel.DEFAULT_PORT);";
+      case 1: // annotated member
+        return "channel.withTuning(" + j + ");";
+      case 2: // fully qualified member select chain
+        return "System.out.println(io.grpc.internal.GrpcUtil.TIMER_SERVICE.create());";
+      case 3: // override of a stable method in an @Internal class
+        return "call.sendMessage(names);";
+      case 4: // @Internal method
+        return "call.internalOnly();";
+      default: // nested classes
+        return "System.out.println(Metadata.BinaryKey.SUFFIX + Metadata.Key.of(\"k\"));";
+    }
+  }
+
+  private static JavaFileObject source(String path, String... lines) {
+    String content = String.join("\n", lines) + "\n";
+    return new SimpleJavaFileObject(URI.create("mem:///" + path), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.auto.service.AutoService;
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.BugPattern.LinkType;
+import com.google.errorprone.BugPattern.SeverityLevel;
+import com.google.errorprone.ErrorProneFlags;
+import com.google.errorprone.bugpatterns.BugChecker;
+import javax.lang.model.element.AnnotationMirror;
+
+/**
+ * Reports uses of APIs carrying any of the annotation types given by
+ * {@code -XepOpt:GrpcApiChecker:Annotations}, such as a project's own {@code @Beta}. Does nothing
+ * unless that flag is set.
+ */
+@AutoService(BugChecker.class)
+@BugPattern(
+    name = "GrpcAnnotatedApi",
+    summary = "Annotated API should not be used in application code",
+    explanation = "APIs carrying one of the configured annotations should not be used in"
+        + " application code",
+    severity = SeverityLevel.ERROR,
+    linkType = LinkType.CUSTOM,
+    link = "https://github.com/grpc/grpc-java"
+)
+public final class AnnotatedApiChecker extends AnnotationChecker {
+
+  public AnnotatedApiChecker() {
+    this(ErrorProneFlags.empty());
+  }
+
+  public AnnotatedApiChecker(ErrorProneFlags flags) {
+    this(CheckerOptions.fromFlags(flags));
+  }
+
+  private AnnotatedApiChecker(CheckerOptions options) {
+    super(options.otherAnnotations, options);
+  }
+
+  @Override
+  protected String message(AnnotationMirror annotation) {
+    String name = annotationName(annotation);
+    return "@" + name.substring(name.lastIndexOf('.') + 1)
+        + " should not be used in application code";
+  }
+}
@@ -18,84 +18,240 @@ package io.grpc.annotations.checkers;
 
 import static com.google.errorprone.matchers.Description.NO_MATCH;
 
+import com.google.errorprone.BugPattern.SeverityLevel;
 import com.google.errorprone.VisitorState;
 import com.google.errorprone.bugpatterns.BugChecker;
+import com.google.errorprone.bugpatterns.BugChecker.ClassTreeMatcher;
+import com.google.errorprone.bugpatterns.BugChecker.CompilationUnitTreeMatcher;
 import com.google.errorprone.bugpatterns.BugChecker.IdentifierTreeMatcher;
 import com.google.errorprone.bugpatterns.BugChecker.MemberSelectTreeMatcher;
 import com.google.errorprone.matchers.Description;
+import com.google.errorprone.suppliers.Supplier;
 import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.IdentifierTree;
 import com.sun.source.tree.MemberSelectTree;
 import com.sun.source.tree.Tree;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.lang.model.element.AnnotationMirror;
-import java.util.Set;
+import javax.lang.model.element.TypeElement;
 
-abstract class AnnotationChecker extends BugChecker implements IdentifierTreeMatcher,
-    MemberSelectTreeMatcher {
+abstract class AnnotationChecker extends BugChecker implements ClassTreeMatcher,
+    CompilationUnitTreeMatcher, IdentifierTreeMatcher, MemberSelectTreeMatcher {
 
-  private final String annotationType;
+  // The annotation type is registered once per compilation with the verdict cache that all
+  // checkers of the compilation share.
+  private final Supplier<VerdictCache.Slot> annotationSlot;
+
+  private final CheckerOptions options;
+
+  // Severities that override the default of the checker, by annotation type name.
+  private final Map<String, SeverityLevel> severities = new HashMap<>();
+
+  // The parts of the description of a use of an API, by the annotation found on the API. Uses of
+  // the same declaration find the same annotation, so only the position is left to fill in.
+  private final Supplier<Map<AnnotationMirror, Template>> templates =
+      VisitorState.memoize(state -> new IdentityHashMap<>());
 
   // When this is set to true, method calls will only match the annotation if all members of the
   // method hierarchy are annotated. This is used to avoid io.grpc.internal implementations
   // "hiding" publicly declared API methods.
   private final boolean requireAnnotationOnMethodHierarchy;
 
-  AnnotationChecker(String annotationType) {
-    this(annotationType, false);
+  AnnotationChecker(
+      List<CheckerOptions.AnnotationType> annotationTypes, CheckerOptions options) {
+    this(annotationTypes, false, options);
   }
 
-  AnnotationChecker(String annotationType, boolean requireAnnotationOnMethodHierarchy) {
-    if (annotationType == null) {
-      throw new NullPointerException("annotationType");
+  AnnotationChecker(
+      List<CheckerOptions.AnnotationType> annotationTypes,
+      boolean requireAnnotationOnMethodHierarchy,
+      CheckerOptions options) {
+    if (annotationTypes == null) {
+      throw new NullPointerException("annotationTypes");
     }
-    this.annotationType = annotationType;
+    for (CheckerOptions.AnnotationType type : annotationTypes) {
+      if (type.severity != null) {
+        severities.put(type.name, type.severity);
+      }
+    }
+    List<String> names = CheckerOptions.AnnotationType.names(annotationTypes);
     this.requireAnnotationOnMethodHierarchy = requireAnnotationOnMethodHierarchy;
+    this.options = options;
+    this.annotationSlot = VisitorState.memoize(state -> VerdictCache.instance(state, options)
+        .register(names, canonicalName(), state));
   }
 
   /**
-   * Returns non-null if api is annotated.
+   * Returns the description if tree is annotated.
    */
-  private AnnotationMirror findAnnotatedApi(Symbol symbol) {
-    if (symbol == null) {
-      return null;
-    }
-    for (AnnotationMirror annotation : symbol.getAnnotationMirrors()) {
-      if (annotation.getAnnotationType().toString().equals(annotationType)) {
-        return annotation;
-      }
+  private Description match(Tree tree, VisitorState state) {
+    VerdictCache.Slot slot = annotationSlot.get(state);
+    CheckerStats.Checker stats = slot.stats();
+    if (stats == null) {
+      return match(tree, state, slot, null);
     }
-    // recursive
-    return findAnnotatedApi(symbol.owner);
+    long start = System.nanoTime();
+    Description description = match(tree, state, slot, stats);
+    stats.recordTree(description != NO_MATCH, System.nanoTime() - start);
+    return description;
   }
 
   /**
-   * Returns the description if tree is annotated.
+   * Matches a qualified name such as {@code io.grpc.internal.GrpcUtil.TIMER_SERVICE} once, from
+   * its outermost member select, and reports the first annotated segment found walking inwards.
+   * The inner segments are visited as well, but are skipped without looking at their symbols.
    */
-  private Description match(Tree tree, VisitorState state) {
-    Symbol symbol = ASTHelpers.getSymbol(tree);
-    if (symbol == null) {
+  private Description match(
+      Tree tree, VisitorState state, VerdictCache.Slot slot, CheckerStats.Checker stats) {
+    if (slot.skipsCurrentTrees() || isQualifier(tree, state)) {
       return NO_MATCH;
     }
-    AnnotationMirror annotation = findAnnotatedApi(symbol);
-    if (annotation == null) {
+    Inventory inventory = Inventory.instance(state.context, options);
+    if (inventory != null) {
+      inventory.add(tree, slot);
+    }
+    if (!slot.canMatch()) {
       return NO_MATCH;
     }
-    if (requireAnnotationOnMethodHierarchy && symbol instanceof MethodSymbol) {
-      Set<MethodSymbol> superMethods =
-              ASTHelpers.findSuperMethods((MethodSymbol) symbol, state.getTypes());
-      for (MethodSymbol superMethod : superMethods) {
-        AnnotationMirror superAnnotation = findAnnotatedApi(superMethod);
-        if (superAnnotation == null) {
+    for (Tree segment = tree; segment != null; segment = qualifier(segment)) {
+      Symbol symbol = ASTHelpers.getSymbol(segment);
+      if (symbol == null) {
+        continue;
+      }
+      if (stats != null) {
+        stats.recordSymbol();
+      }
+      AnnotationMirror annotation = slot.find(symbol);
+      if (annotation == null) {
+        if (slot.isAllowed(symbol)) {
+          // the qualifier of an allowed API is part of its use
           return NO_MATCH;
         }
+        continue;
+      }
+      if (requireAnnotationOnMethodHierarchy
+          && symbol instanceof MethodSymbol
+          && !slot.isOnHierarchy((MethodSymbol) symbol, state)) {
+        continue;
+      }
+      Baseline baseline = Baseline.instance(state.context, options);
+      if (baseline != null && baseline.accepts(
+          state.getPath().getCompilationUnit().getSourceFile(), checkName(annotation), symbol)) {
+        return NO_MATCH;
+      }
+      UsageAggregator aggregator = UsageAggregator.instance(state.context, options);
+      if (aggregator != null) {
+        aggregator.add(this, checkName(annotation), symbol, segment, annotation, state);
+        return NO_MATCH;
       }
+      Template template = template(annotation, state);
+      write(template, segment, Baseline.apiName(symbol), 1, template.message, annotation, state);
+      return template.describe(segment);
+    }
+    return NO_MATCH;
+  }
+
+  /** Returns true if the tree qualifies a member select, which matches it as part of its chain. */
+  private static boolean isQualifier(Tree tree, VisitorState state) {
+    Tree parent = state.getPath().getParentPath().getLeaf();
+    return parent instanceof MemberSelectTree
+        && ((MemberSelectTree) parent).getExpression() == tree;
+  }
+
+  /** Returns the next segment of a qualified name, or null if there is none. */
+  static Tree qualifier(Tree tree) {
+    if (!(tree instanceof MemberSelectTree)) {
+      return null;
+    }
+    ExpressionTree expression = ((MemberSelectTree) tree).getExpression();
+    return expression instanceof MemberSelectTree || expression instanceof IdentifierTree
+        ? expression
+        : null;
+  }
+
+  /** Returns the description template for uses of APIs carrying the annotation. */
+  private Template template(AnnotationMirror annotation, VisitorState state) {
+    return templates.get(state).computeIfAbsent(annotation, a -> {
+      SeverityLevel severity = severities.get(annotationName(a));
+      return new Template(checkName(a), link(a),
+          severity == null ? defaultSeverity() : severity, message(a));
+    });
+  }
+
+  /** Describes the first of several uses of an API, adding a summary of the uses. */
+  Description describeUses(Tree tree, String apiName, int count, AnnotationMirror annotation,
+      VisitorState state, String uses) {
+    Template template = template(annotation, state);
+    String message = template.message + " (" + uses + ")";
+    write(template, tree, apiName, count, message, annotation, state);
+    return Description.builder(tree, template.checkName, template.link, template.severity, message)
+        .build();
+  }
+
+  /** Writes a reported use to the findings file, if one is configured. */
+  private void write(Template template, Tree tree, String apiName, int count, String message,
+      AnnotationMirror annotation, VisitorState state) {
+    FindingsWriter findings = FindingsWriter.instance(state.context, options);
+    if (findings != null) {
+      findings.write(template.checkName, template.severity, template.link, message,
+          annotationName(annotation), apiName, count, state.getPath().getCompilationUnit(), tree);
     }
-    return describe(tree, annotation);
   }
 
-  protected abstract Description describe(Tree tree, AnnotationMirror annotation);
+  /**
+   * Returns the name that uses of APIs carrying the annotation are reported under. Error Prone
+   * replaces the severity of a description with the one configured for its check name, so an
+   * annotation type with a severity of its own is given a check name of its own, such as
+   * {@code GrpcAnnotatedApi:Beta}.
+   */
+  private String checkName(AnnotationMirror annotation) {
+    String name = annotationName(annotation);
+    return severities.containsKey(name)
+        ? canonicalName() + ":" + name.substring(name.lastIndexOf('.') + 1)
+        : canonicalName();
+  }
+
+  /** Returns the link to report uses of APIs carrying the annotation with. */
+  protected String link(AnnotationMirror annotation) {
+    return linkUrl();
+  }
+
+  /** Returns the message to report uses of APIs carrying the annotation with. */
+  protected String message(AnnotationMirror annotation) {
+    return message();
+  }
+
+  static String annotationName(AnnotationMirror annotation) {
+    return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+  }
+
+  @Override
+  public Description matchCompilationUnit(CompilationUnitTree tree, VisitorState state) {
+    annotationSlot.get(state).enterCompilationUnit(tree, state);
+    Baseline baseline = Baseline.instance(state.context, options);
+    if (baseline != null) {
+      baseline.compiledFile(tree.getSourceFile());
+    }
+    UsageAggregator aggregator = UsageAggregator.instance(state.context, options);
+    if (aggregator != null) {
+      aggregator.enterCompilationUnit(tree);
+    }
+    return NO_MATCH;
+  }
+
+  @Override
+  public Description matchClass(ClassTree tree, VisitorState state) {
+    annotationSlot.get(state).enterClass(tree, state);
+    return NO_MATCH;
+  }
 
   @Override
   public Description matchIdentifier(IdentifierTree tree, VisitorState state) {
@@ -106,4 +262,23 @@ abstract class AnnotationChecker extends BugChecker implements IdentifierTreeMat
   public Description matchMemberSelect(MemberSelectTree tree, VisitorState state) {
     return match(tree, state);
   }
+
+  /** The parts of a description that all uses of an annotated declaration share. */
+  private static final class Template {
+    final String checkName;
+    final String link;
+    final SeverityLevel severity;
+    final String message;
+
+    Template(String checkName, String link, SeverityLevel severity, String message) {
+      this.checkName = checkName;
+      this.link = link;
+      this.severity = severity;
+      this.message = message;
+    }
+
+    Description describe(Tree tree) {
+      return Description.builder(tree, checkName, link, severity, message).build();
+    }
+  }
 }
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A sorted, read-only table of annotated APIs, keyed by class file names.
+ *
+ * <p>Each entry holds the annotations that apply to a package, class or member, including the ones
+ * inherited from enclosing classes, the package and its enclosing packages, so a lookup never has
+ * to walk owners. Every class that was indexed has an entry, even if nothing applies to it, and so
+ * does its package; members only have an entry if they carry an annotation themselves, unless the
+ * index {@link #hasAllMembers has all members}. Package annotations come from the package-infos
+ * indexed along with the classes, so the entries of a split package lack those of package-infos
+ * that were not indexed. Keys are
+ *
+ * <ul>
+ *   <li>{@code io/grpc/} for a package,
+ *   <li>{@code io/grpc/Metadata$Key} for a class,
+ *   <li>{@code io/grpc/Metadata$Key.of:(Ljava/lang/String;)Lio/grpc/Metadata$Key;} for a member.
+ * </ul>
+ *
+ * <p>The file starts with a header holding flags and naming the annotation types, in the order of
+ * their bits in each entry's mask, followed by a table of entry offsets sorted by key, so lookups
+ * are a binary search over the memory-mapped file.
+ */
+final class ApiIndex {
+
+  private static final int MAGIC = 0x47415049; // "GAPI"
+  static final int VERSION = 3;
+
+  // Header flag of indexes that have an entry for every public and protected member.
+  private static final int ALL_MEMBERS = 1;
+
+  private final ByteBuffer buffer;
+  private final boolean allMembers;
+  private final List<String> annotationTypes;
+  private final int entryCount;
+  private final int offsetsStart;
+
+  private ApiIndex(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not an API index");
+    }
+    int version = buffer.getShort(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported API index version " + version);
+    }
+    this.allMembers = (buffer.get(6) & ALL_MEMBERS) != 0;
+    int position = 7;
+    int annotationCount = buffer.get(position++) & 0xff;
+    List<String> types = new ArrayList<>(annotationCount);
+    for (int i = 0; i < annotationCount; i++) {
+      int length = buffer.getShort(position) & 0xffff;
+      types.add(decode(position + 2, length));
+      position += 2 + length;
+    }
+    this.annotationTypes = Collections.unmodifiableList(types);
+    this.entryCount = buffer.getInt(position);
+    this.offsetsStart = position + 4;
+  }
+
+  /** Maps an index file into memory. */
+  static ApiIndex open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new ApiIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /** Reads an index from a buffer, which must not be modified afterwards. */
+  static ApiIndex read(ByteBuffer buffer) throws IOException {
+    return new ApiIndex(buffer.slice());
+  }
+
+  /** Returns the annotation types, as qualified names, in the order of their mask bits. */
+  List<String> annotationTypes() {
+    return annotationTypes;
+  }
+
+  int size() {
+    return entryCount;
+  }
+
+  /**
+   * Returns true if every public and protected member of the indexed classes has an entry, as in
+   * snapshots, so that a member without one does not exist. Otherwise only annotated members
+   * have entries.
+   */
+  boolean hasAllMembers() {
+    return allMembers;
+  }
+
+  static String packageKey(String packageName) {
+    return packageName.isEmpty() ? "/" : packageName + '/';
+  }
+
+  static String classKey(String className) {
+    return className;
+  }
+
+  static String memberKey(String className, String name, String descriptor) {
+    return className + '.' + name + ':' + descriptor;
+  }
+
+  /** Returns the entry for the key, or null if there is none. */
+  Entry find(String key) {
+    byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int offset = buffer.getInt(offsetsStart + 4 * mid);
+      int cmp = compareKey(offset, wanted);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return readEntry(offset);
+      }
+    }
+    return null;
+  }
+
+  /** Returns all entries in key order. */
+  List<Entry> entries() {
+    List<Entry> entries = new ArrayList<>(entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      entries.add(readEntry(buffer.getInt(offsetsStart + 4 * i)));
+    }
+    return entries;
+  }
+
+  private int compareKey(int offset, byte[] wanted) {
+    int length = buffer.getShort(offset) & 0xffff;
+    int start = offset + 2;
+    int common = Math.min(length, wanted.length);
+    for (int i = 0; i < common; i++) {
+      int cmp = (buffer.get(start + i) & 0xff) - (wanted[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - wanted.length;
+  }
+
+  private Entry readEntry(int offset) {
+    int keyLength = buffer.getShort(offset) & 0xffff;
+    String key = decode(offset + 2, keyLength);
+    int position = offset + 2 + keyLength;
+    long mask = buffer.getLong(position);
+    position += 8;
+    String[] values = new String[Long.bitCount(mask)];
+    for (int i = 0; i < values.length; i++) {
+      int length = buffer.getShort(position) & 0xffff;
+      values[i] = length == 0 ? null : decode(position + 2, length);
+      position += 2 + length;
+    }
+    return new Entry(key, mask, values);
+  }
+
+  private String decode(int offset, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** The annotations that apply to one package, class or member. */
+  static final class Entry {
+    final String key;
+    final long mask;
+    // The value element of each applicable annotation, in bit order, or null if there is none.
+    private final String[] values;
+
+    Entry(String key, long mask, String[] values) {
+      this.key = key;
+      this.mask = mask;
+      this.values = values;
+    }
+
+    /** Returns true if the annotation with the given bit applies. */
+    boolean has(int bit) {
+      return (mask & (1L << bit)) != 0;
+    }
+
+    /** Returns the value element of the annotation with the given bit, or null. */
+    String value(int bit) {
+      if (!has(bit)) {
+        return null;
+      }
+      return values[Long.bitCount(mask & ((1L << bit) - 1))];
+    }
+  }
+
+  /** Collects entries and writes them as an index. */
+  static final class Builder {
+    private final List<String> annotationTypes;
+    private final Map<String, Entry> entries = new TreeMap<>(Builder::compareUtf8);
+    private boolean allMembers;
+
+    Builder(List<String> annotationTypes) {
+      if (annotationTypes.size() > VerdictCache.MAX_ANNOTATIONS) {
+        throw new IllegalArgumentException("Too many annotation types: " + annotationTypes);
+      }
+      this.annotationTypes = new ArrayList<>(annotationTypes);
+    }
+
+    /**
+     * Adds an entry. {@code values} maps the bit of each applicable annotation to its value
+     * element, which may be null.
+     */
+    Builder add(String key, Map<Integer, String> values) {
+      long mask = 0;
+      for (int bit : values.keySet()) {
+        mask |= 1L << bit;
+      }
+      String[] ordered = new String[values.size()];
+      for (int bit = 0, i = 0; bit < annotationTypes.size(); bit++) {
+        if ((mask & (1L << bit)) != 0) {
+          ordered[i++] = values.get(bit);
+        }
+      }
+      entries.put(key, new Entry(key, mask, ordered));
+      return this;
+    }
+
+    /**
+     * Makes {@link #addClasses} add an entry for every public and protected member, annotated or
+     * not, so that the index also tells which members exist.
+     */
+    Builder withAllMembers() {
+      allMembers = true;
+      return this;
+    }
+
+    /** Adds the annotations found in the given class files. */
+    Builder addClasses(Iterable<ClassFile> classes) {
+      Map<String, Integer> bits = new HashMap<>();
+      for (int i = 0; i < annotationTypes.size(); i++) {
+        bits.put(annotationTypes.get(i).replace('.', '/'), i);
+      }
+      Map<String, ClassFile> byName = new HashMap<>();
+      Map<String, Map<Integer, String>> packages = new HashMap<>();
+      for (ClassFile classFile : classes) {
+        if (classFile.isPackageInfo()) {
+          packages.put(classFile.packageName(), own(classFile.annotations, bits));
+        } else {
+          byName.put(classFile.name, classFile);
+        }
+      }
+      Map<String, Map<Integer, String>> effectivePackages = new HashMap<>();
+      Set<String> packageNames = new HashSet<>(packages.keySet());
+      for (ClassFile classFile : byName.values()) {
+        packageNames.add(classFile.packageName());
+      }
+      for (String packageName : packageNames) {
+        add(packageKey(packageName), effective(packageName, packages, effectivePackages));
+      }
+      Map<String, Map<Integer, String>> effective = new HashMap<>();
+      for (ClassFile classFile : byName.values()) {
+        Map<Integer, String> classValues =
+            effective(classFile, byName, packages, effectivePackages, bits, effective);
+        add(classKey(classFile.name), classValues);
+        for (ClassFile.Member member : classFile.members) {
+          Map<Integer, String> memberValues = own(member.annotations, bits);
+          if (!memberValues.isEmpty() || (allMembers && member.isApi())) {
+            Map<Integer, String> merged = new HashMap<>(classValues);
+            merged.putAll(memberValues);
+            add(memberKey(classFile.name, member.name, member.descriptor), merged);
+          }
+        }
+      }
+      return this;
+    }
+
+    /** Returns the annotations of a class, falling back to its enclosing classes and package. */
+    private static Map<Integer, String> effective(
+        ClassFile classFile,
+        Map<String, ClassFile> byName,
+        Map<String, Map<Integer, String>> packages,
+        Map<String, Map<Integer, String>> effectivePackages,
+        Map<String, Integer> bits,
+        Map<String, Map<Integer, String>> memo) {
+      Map<Integer, String> known = memo.get(classFile.name);
+      if (known != null) {
+        return known;
+      }
+      Map<Integer, String> values = new HashMap<>();
+      ClassFile outer = classFile.outerName == null ? null : byName.get(classFile.outerName);
+      if (outer != null) {
+        values.putAll(effective(outer, byName, packages, effectivePackages, bits, memo));
+      } else {
+        values.putAll(effective(classFile.packageName(), packages, effectivePackages));
+      }
+      values.putAll(own(classFile.annotations, bits));
+      memo.put(classFile.name, values);
+      return values;
+    }
+
+    /**
+     * Returns the annotations of a package, given with slashes, falling back to its enclosing
+     * packages.
+     */
+    private static Map<Integer, String> effective(
+        String packageName,
+        Map<String, Map<Integer, String>> packages,
+        Map<String, Map<Integer, String>> memo) {
+      Map<Integer, String> known = memo.get(packageName);
+      if (known != null) {
+        return known;
+      }
+      Map<Integer, String> values = new HashMap<>();
+      if (!packageName.isEmpty()) {
+        int slash = packageName.lastIndexOf('/');
+        values.putAll(effective(slash < 0 ? "" : packageName.substring(0, slash), packages, memo));
+      }
+      values.putAll(packages.getOrDefault(packageName, Collections.emptyMap()));
+      memo.put(packageName, values);
+      return values;
+    }
+
+    private static Map<Integer, String> own(
+        List<ClassFile.Annotation> annotations, Map<String, Integer> bits) {
+      Map<Integer, String> values = new HashMap<>();
+      for (ClassFile.Annotation annotation : annotations) {
+        Integer bit = bits.get(annotation.type);
+        if (bit != null) {
+          values.put(bit, annotation.value);
+        }
+      }
+      return values;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      DataOutputStream bodyOut = new DataOutputStream(body);
+      int[] offsets = new int[entries.size()];
+
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      headerOut.writeInt(MAGIC);
+      headerOut.writeShort(VERSION);
+      headerOut.writeByte(allMembers ? ALL_MEMBERS : 0);
+      headerOut.writeByte(annotationTypes.size());
+      for (String type : annotationTypes) {
+        writeString(headerOut, type);
+      }
+      headerOut.writeInt(entries.size());
+      int bodyStart = header.size() + 4 * entries.size();
+
+      int i = 0;
+      for (Entry entry : entries.values()) {
+        offsets[i++] = bodyStart + bodyOut.size();
+        writeString(bodyOut, entry.key);
+        bodyOut.writeLong(entry.mask);
+        for (String value : entry.values) {
+          writeString(bodyOut, value == null ? "" : value);
+        }
+      }
+      for (int offset : offsets) {
+        headerOut.writeInt(offset);
+      }
+      headerOut.flush();
+      bodyOut.flush();
+      header.writeTo(out);
+      body.writeTo(out);
+    }
+
+    /** Returns the index as a buffer. */
+    ApiIndex build() throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writeTo(out);
+      return ApiIndex.read(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > 0xffff) {
+        throw new IOException("String too long for API index: " + value);
+      }
+      out.writeShort(bytes.length);
+      out.write(bytes);
+    }
+
+    private static int compareUtf8(String a, String b) {
+      byte[] x = a.getBytes(StandardCharsets.UTF_8);
+      byte[] y = b.getBytes(StandardCharsets.UTF_8);
+      int common = Math.min(x.length, y.length);
+      for (int i = 0; i < common; i++) {
+        int cmp = (x[i] & 0xff) - (y[i] & 0xff);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return Integer.compare(x.length, y.length);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ApiIndex" + annotationTypes + " with " + entryCount + " entries";
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds an {@link ApiIndex} from grpc-java jars, so that the checkers can answer lookups without
+ * reading annotations from symbols.
+ *
+ * <pre>
+ * java -cp grpc-java-api-checker.jar io.grpc.annotations.checkers.ApiIndexTool \
+ *     [--annotations io.grpc.Internal,io.grpc.ExperimentalApi] [--packages io.grpc] \
+ *     --output grpc-api.idx grpc-api.jar grpc-core.jar ...
+ * </pre>
+ *
+ * <p>With {@code --snapshots <directory>} instead of {@code --output}, the index is written as
+ * the {@link ApiSnapshots snapshot} of the release of the jars, which is taken from the jar that
+ * declares the annotation types unless {@code --version} gives it. Snapshots have an entry for
+ * every public and protected member, so that {@link SnapshotDiffTool} can tell removed members.
+ *
+ * <p>Without {@code --packages}, {@code io.grpc} and the packages of the annotation types are
+ * indexed, as the checkers do.
+ */
+public final class ApiIndexTool {
+
+  static final List<String> DEFAULT_ANNOTATIONS =
+      Arrays.asList("io.grpc.Internal", "io.grpc.ExperimentalApi");
+
+  private ApiIndexTool() {}
+
+  public static void main(String[] args) throws IOException {
+    List<String> annotations = DEFAULT_ANNOTATIONS;
+    List<String> packages = null;
+    Path output = null;
+    Path snapshots = null;
+    String version = null;
+    List<Path> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--annotations":
+          annotations = Arrays.asList(value(args, ++i).split(","));
+          break;
+        case "--packages":
+          packages = Arrays.asList(value(args, ++i).split(","));
+          break;
+        case "--output":
+          output = Paths.get(value(args, ++i));
+          break;
+        case "--snapshots":
+          snapshots = Paths.get(value(args, ++i));
+          break;
+        case "--version":
+          version = value(args, ++i);
+          break;
+        default:
+          inputs.add(Paths.get(args[i]));
+      }
+    }
+    if ((output == null) == (snapshots == null) || inputs.isEmpty()) {
+      System.err.println("Usage: ApiIndexTool [--annotations <types>] [--packages <prefixes>]"
+          + " (--output <file> | --snapshots <directory> [--version <version>])"
+          + " <jar or directory>...");
+      System.exit(2);
+      return;
+    }
+    if (packages == null) {
+      packages = CheckerOptions.defaultPackages(annotations);
+    }
+    if (snapshots != null) {
+      if (version == null) {
+        List<File> jars = new ArrayList<>();
+        for (Path input : inputs) {
+          jars.add(input.toFile());
+        }
+        version = ApiSnapshots.version(jars, annotations);
+      }
+      if (version == null) {
+        System.err.println("No version found in the jars declaring " + annotations
+            + "; use --version");
+        System.exit(2);
+        return;
+      }
+      Files.createDirectories(snapshots);
+      output = ApiSnapshots.file(snapshots, version);
+    }
+    ApiIndex.Builder builder = new ApiIndex.Builder(annotations);
+    if (snapshots != null) {
+      // snapshots list every member, so that a diff tells removed members from unannotated ones
+      builder.withAllMembers();
+    }
+    builder.addClasses(read(new PackagePrefixes(packages), inputs));
+    try (OutputStream out = Files.newOutputStream(output)) {
+      builder.writeTo(out);
+    }
+  }
+
+  /** Reads the inputs and collects their annotated APIs. */
+  static ApiIndex.Builder build(
+      List<String> annotations, PackagePrefixes packages, List<Path> inputs) throws IOException {
+    return new ApiIndex.Builder(annotations).addClasses(read(packages, inputs));
+  }
+
+  private static List<ClassFile> read(PackagePrefixes packages, List<Path> inputs)
+      throws IOException {
+    List<ClassFile> classes = new ArrayList<>();
+    for (Path input : inputs) {
+      classes.addAll(ClassFiles.read(input, packages));
+    }
+    return classes;
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+    }
+    return args[i];
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie of API name patterns, such as {@code io.grpc.ServerBuilder#maxInboundMessageSize}. API
+ * names are split at {@code .}, {@code $} and {@code #}, so nested classes may be written either
+ * way. In a pattern, {@code *} stands for one package or class name, {@code #*} for any member,
+ * and a trailing {@code **} for anything below, so {@code io.grpc.ServerBuilder#*} matches the
+ * members of {@code ServerBuilder} and {@code io.grpc.xds.**} everything in {@code io.grpc.xds}
+ * and its subpackages.
+ */
+final class ApiPatterns {
+
+  private final Node root = new Node();
+
+  ApiPatterns(Iterable<String> patterns) {
+    for (String pattern : patterns) {
+      if (!pattern.trim().isEmpty()) {
+        add(pattern.trim());
+      }
+    }
+  }
+
+  private void add(String pattern) {
+    Node node = root;
+    for (String token : tokens(pattern)) {
+      if (token.equals("**")) {
+        node.matchesRest = true;
+        return;
+      }
+      node = node.children.computeIfAbsent(token, t -> new Node());
+    }
+    node.terminal = true;
+  }
+
+  /**
+   * Returns true if a pattern matches the API, given as the binary name of a class, optionally
+   * followed by {@code #} and the name of a member.
+   */
+  boolean matches(String apiName) {
+    return matches(root, tokens(apiName), 0);
+  }
+
+  private static boolean matches(Node node, List<String> tokens, int next) {
+    if (node.matchesRest) {
+      return true;
+    }
+    if (next == tokens.size()) {
+      return node.terminal;
+    }
+    String token = tokens.get(next);
+    Node exact = node.children.get(token);
+    if (exact != null && matches(exact, tokens, next + 1)) {
+      return true;
+    }
+    Node wildcard = node.children.get(token.startsWith("#") ? "#*" : "*");
+    return wildcard != null && matches(wildcard, tokens, next + 1);
+  }
+
+  /** Splits a name into its package and class names, and its member name prefixed by #. */
+  private static List<String> tokens(String name) {
+    List<String> tokens = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i <= name.length(); i++) {
+      char c = i == name.length() ? '.' : name.charAt(i);
+      if (c == '.' || c == '$' || c == '#') {
+        if (i > start) {
+          tokens.add(name.substring(start, i));
+        }
+        start = c == '#' ? i : i + 1;
+      }
+    }
+    return tokens;
+  }
+
+  private static final class Node {
+    final Map<String, Node> children = new HashMap<>();
+    boolean terminal;
+    boolean matchesRest;
+  }
+}
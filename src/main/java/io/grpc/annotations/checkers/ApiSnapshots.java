@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A directory of {@link ApiIndex} files, one for each grpc-java release, named after the release
+ * such as {@code 1.60.0.idx}. A compilation uses the snapshot of the release whose jar declares
+ * the annotation types, as given by the jar's manifest or, failing that, its file name. The
+ * snapshot only answers for classes from jars of that release, since a classpath may mix
+ * releases.
+ */
+final class ApiSnapshots {
+
+  private static final Attributes.Name BUNDLE_VERSION = new Attributes.Name("Bundle-Version");
+
+  // The version in file names such as grpc-api-1.60.0.jar.
+  private static final Pattern FILE_NAME_VERSION = Pattern.compile("-(\\d[\\w.-]*)\\.jar$");
+
+  // The version of each jar seen by this process, or "" if it has none or does not declare an
+  // annotation type, keyed by path, size and modification time.
+  private static final ConcurrentMap<String, String> jarVersions = new ConcurrentHashMap<>();
+
+  private ApiSnapshots() {}
+
+  /** Returns the snapshot file of a release. */
+  static Path file(Path directory, String version) {
+    return directory.resolve(version + ".idx");
+  }
+
+  /**
+   * Returns the version of the first jar that declares one of the annotation types, or null if
+   * none does or its version is not known.
+   */
+  static String version(Iterable<? extends File> classpath, List<String> annotationTypes) {
+    for (File file : classpath) {
+      if (!file.isFile() || !file.getName().endsWith(".jar")) {
+        continue;
+      }
+      String stamp = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+      String version = jarVersions.computeIfAbsent(stamp, s -> read(file, annotationTypes));
+      if (!version.isEmpty()) {
+        return version;
+      }
+    }
+    return null;
+  }
+
+  private static String read(File jar, List<String> annotationTypes) {
+    try (JarFile jarFile = new JarFile(jar)) {
+      boolean declares = false;
+      for (String type : annotationTypes) {
+        for (String binaryName : ClasspathProbe.binaryNames(type)) {
+          declares |= jarFile.getEntry(binaryName.replace('.', '/') + ".class") != null;
+        }
+      }
+      if (!declares) {
+        return "";
+      }
+      String version = version(jar.getName(), jarFile.getManifest());
+      return version == null ? "" : version;
+    } catch (IOException e) {
+      return "";
+    }
+  }
+
+  /** Returns the version of a jar, or null if it has none or cannot be read. */
+  static String version(File jar) {
+    try (JarFile jarFile = new JarFile(jar)) {
+      return version(jar.getName(), jarFile.getManifest());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the version in a jar's manifest, or else in its file name, or null if there is none.
+   */
+  static String version(String fileName, Manifest manifest) {
+    if (manifest != null) {
+      Attributes attributes = manifest.getMainAttributes();
+      for (Attributes.Name name :
+          new Attributes.Name[] {Attributes.Name.IMPLEMENTATION_VERSION, BUNDLE_VERSION}) {
+        String version = attributes.getValue(name);
+        if (version != null && !version.trim().isEmpty()) {
+          return version.trim();
+        }
+      }
+    }
+    Matcher matcher = FILE_NAME_VERSION.matcher(fileName);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+}
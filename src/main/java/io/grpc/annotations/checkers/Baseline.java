@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.util.Context;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.tools.JavaFileObject;
+
+/**
+ * Accepted uses of annotated APIs, read from the file named by
+ * {@code -XepOpt:GrpcApiChecker:Baseline}. A use is reported only if its file uses the API more
+ * often under the same check than the baseline allows, so existing uses stay quiet while new ones
+ * fail the build. The uses are counted per file rather than tied to lines, so unrelated edits do
+ * not invalidate the baseline.
+ *
+ * <p>With {@code -XepOpt:GrpcApiChecker:WriteBaseline=true}, nothing is reported and the file is
+ * rewritten when the compilation finishes, with the uses found in the compiled files replacing
+ * their old entries. Entries of files compiled elsewhere are kept, so modules can share a file:
+ * a compilation rereads the file while it holds a lock on {@code <file>.lock}, in this JVM and
+ * in others, so compilations finishing at the same time do not drop each other's entries.
+ *
+ * <p>The file lists each source file, relative to the directory of the baseline file or to
+ * {@code -XepOpt:GrpcApiChecker:BaselineRoot}, followed by one tab-indented line per API it uses:
+ *
+ * <pre>
+ * src/main/java/com/example/Client.java
+ * 	GrpcExperimentalApi	io.grpc.ManagedChannelBuilder#maxInboundMessageSize	2
+ * </pre>
+ */
+final class Baseline {
+
+  private static final Context.Key<Baseline> KEY = new Context.Key<>();
+
+  private static final String HEADER = "# grpc-java-api-checker baseline";
+
+  // A JVM may hold only one lock on a file, so compilations of this JVM take turns by baseline.
+  private static final ConcurrentMap<Path, Object> writingFiles = new ConcurrentHashMap<>();
+
+  private final Path file;
+  private final boolean writing;
+
+  // The directory that source files are named relative to.
+  private final Path root;
+
+  // Allowed counts keyed by file, check name and API, separated by tabs.
+  private final Map<String, Integer> allowed;
+
+  // Counts of the uses found so far, keyed like allowed.
+  private final Map<String, Integer> found = new HashMap<>();
+
+  // The source files of the compilation, when writing.
+  private final Set<String> compiledFiles = new HashSet<>();
+
+  /** Returns the baseline of the compilation, or null if no baseline file is configured. */
+  static Baseline instance(Context context, CheckerOptions options) {
+    if (options.baseline == null) {
+      return null;
+    }
+    Baseline baseline = context.get(KEY);
+    if (baseline == null) {
+      baseline = new Baseline(options.baseline, options.writeBaseline, options.baselineRoot);
+      context.put(KEY, baseline);
+      if (baseline.writing) {
+        Baseline written = baseline;
+        MultiTaskListener.instance(context).add(new TaskListener() {
+          @Override
+          public void finished(TaskEvent event) {
+            if (event.getKind() == TaskEvent.Kind.COMPILATION) {
+              written.write();
+            }
+          }
+        });
+      }
+    }
+    return baseline;
+  }
+
+  private Baseline(Path file, boolean writing, Path root) {
+    this.file = file;
+    this.writing = writing;
+    this.root = (root != null ? root : file.toAbsolutePath().getParent())
+        .toAbsolutePath().normalize();
+    // when writing, the file is read once the compilation finishes
+    this.allowed = writing ? Collections.emptyMap() : read(file, false);
+  }
+
+  /**
+   * Counts a use of the API in the source file and returns true if the baseline accepts it. When
+   * writing, every use is accepted.
+   */
+  synchronized boolean accepts(JavaFileObject sourceFile, String checkName, Symbol api) {
+    String key = entryName(sourceFile) + '\t' + checkName + '\t' + apiName(api);
+    int count = found.merge(key, 1, Integer::sum);
+    return writing || count <= allowed.getOrDefault(key, 0);
+  }
+
+  /** Records a source file of the compilation, whose old entries are replaced when writing. */
+  synchronized void compiledFile(JavaFileObject sourceFile) {
+    if (writing) {
+      compiledFiles.add(entryName(sourceFile));
+    }
+  }
+
+  private static Map<String, Integer> read(Path file, boolean writing) {
+    try {
+      return read(file);
+    } catch (NoSuchFileException e) {
+      if (writing) {
+        return new HashMap<>();
+      }
+      throw new UncheckedIOException("Could not find baseline " + file, e);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read baseline " + file, e);
+    }
+  }
+
+  private static Map<String, Integer> read(Path file) throws IOException {
+    // presized from the file, which has at least 32 bytes per entry, so that large baselines
+    // load without rehashing
+    Map<String, Integer> entries = new HashMap<>((int) (Files.size(file) / 32) + 16);
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String sourceFile = null;
+      int lineNumber = 0;
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        lineNumber++;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        if (line.charAt(0) != '\t') {
+          sourceFile = line;
+          continue;
+        }
+        int countStart = line.lastIndexOf('\t') + 1;
+        if (sourceFile == null || countStart <= 1 || line.indexOf('\t', 1) == countStart - 1) {
+          throw new IOException(file + ":" + lineNumber + ": malformed baseline entry: " + line);
+        }
+        int count;
+        try {
+          count = Integer.parseInt(line.substring(countStart));
+        } catch (NumberFormatException e) {
+          throw new IOException(file + ":" + lineNumber + ": malformed baseline count: " + line, e);
+        }
+        entries.put(sourceFile + line.substring(0, countStart - 1), count);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Replaces the entries of the compiled files with the uses found, holding the lock of the file
+   * from reading its entries to moving the new file into place.
+   */
+  private synchronized void write() {
+    Path target;
+    try {
+      target = FindingsWriter.realPath(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write baseline " + file, e);
+    }
+    synchronized (writingFiles.computeIfAbsent(target, f -> new Object())) {
+      Path lockFile = target.resolveSibling(target.getFileName() + ".lock");
+      try (FileChannel channel = FileChannel.open(
+          lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        FileLock lock = channel.lock();
+        try {
+          write(target, read(target, true));
+        } finally {
+          lock.release();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write baseline " + file, e);
+      }
+    }
+  }
+
+  private void write(Path target, Map<String, Integer> current) throws IOException {
+    Map<String, Integer> entries = new TreeMap<>();
+    for (Map.Entry<String, Integer> entry : current.entrySet()) {
+      if (!compiledFiles.contains(entry.getKey().substring(0, entry.getKey().indexOf('\t')))) {
+        entries.put(entry.getKey(), entry.getValue());
+      }
+    }
+    entries.putAll(found);
+    Path temporary =
+        Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        out.write(HEADER);
+        out.write('\n');
+        String sourceFile = null;
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+          String key = entry.getKey();
+          int tab = key.indexOf('\t');
+          String entryFile = key.substring(0, tab);
+          if (!entryFile.equals(sourceFile)) {
+            sourceFile = entryFile;
+            out.write(sourceFile);
+            out.write('\n');
+          }
+          out.write(key, tab, key.length() - tab);
+          out.write('\t');
+          out.write(Integer.toString(entry.getValue()));
+          out.write('\n');
+        }
+      }
+      try {
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Returns the path of the source file relative to the root, with {@code ..} for files outside
+   * it, so that entries do not depend on the working directory or on where the project is
+   * checked out.
+   */
+  private String entryName(JavaFileObject sourceFile) {
+    URI uri = sourceFile.toUri();
+    if (!"file".equals(uri.getScheme())) {
+      return uri.toString();
+    }
+    Path path = Paths.get(uri).normalize();
+    try {
+      path = root.relativize(path);
+    } catch (IllegalArgumentException e) {
+      // on another drive than the root
+    }
+    return path.toString().replace(File.separatorChar, '/');
+  }
+
+  /** Returns the path of the source file relative to the working directory, if it is below it. */
+  static String fileName(JavaFileObject sourceFile) {
+    URI uri = sourceFile.toUri();
+    if (!"file".equals(uri.getScheme())) {
+      return uri.toString();
+    }
+    Path path = Paths.get(uri);
+    Path workingDirectory = Paths.get("").toAbsolutePath();
+    if (path.startsWith(workingDirectory)) {
+      path = workingDirectory.relativize(path);
+    }
+    return path.toString().replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Returns the binary name of a class, or of the class of a member followed by {@code #} and the
+   * member's name, as {@link BytecodeScanner} prints them.
+   */
+  static String apiName(Symbol symbol) {
+    if (symbol instanceof ClassSymbol) {
+      return ((ClassSymbol) symbol).flatname.toString();
+    }
+    if (symbol instanceof PackageSymbol) {
+      return symbol.getQualifiedName().toString();
+    }
+    ClassSymbol owner = symbol.enclClass();
+    return owner == null
+        ? symbol.getSimpleName().toString()
+        : owner.flatname + "#" + symbol.getSimpleName();
+  }
+}
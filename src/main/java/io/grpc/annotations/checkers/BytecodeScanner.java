@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.BugPattern;
+import com.google.errorprone.bugpatterns.BugChecker;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds uses of annotated gRPC APIs in compiled classes, for code that is not built with Error
+ * Prone. Classes are not compiled or loaded; the classes, fields and methods named in their
+ * constant pools are looked up in an {@link ApiIndex}.
+ *
+ * <pre>
+ * java -cp grpc-java-api-checker.jar io.grpc.annotations.checkers.BytecodeScanner \
+ *     (--index grpc-api.idx | --api grpc-api.jar --api grpc-core.jar ...) app.jar lib.jar ...
+ * </pre>
+ *
+ * <p>Findings are printed one per line, with the name of the check that would report them at
+ * compile time. Unlike the checkers, the scanner does not consider method hierarchies: a member
+ * is attributed to the class it is accessed on, and a use of a class is reported once per
+ * referring class. The exit status is 1 if anything was found.
+ */
+public final class BytecodeScanner {
+
+  // The checkers that report each annotation type at compile time.
+  private static final Map<String, Class<? extends BugChecker>> CHECKERS = new HashMap<>();
+
+  static {
+    CHECKERS.put("io.grpc.Internal", InternalChecker.class);
+    CHECKERS.put("io.grpc.ExperimentalApi", ExperimentalApiChecker.class);
+  }
+
+  private final ApiIndex index;
+  private final ApiPatterns allowed;
+  private final String[] checkNames;
+  private final String[] summaries;
+
+  BytecodeScanner(ApiIndex index) {
+    this(index, Collections.emptyList());
+  }
+
+  BytecodeScanner(ApiIndex index, List<String> allowedApis) {
+    this.index = index;
+    this.allowed = new ApiPatterns(allowedApis);
+    List<String> annotationTypes = index.annotationTypes();
+    this.checkNames = new String[annotationTypes.size()];
+    this.summaries = new String[annotationTypes.size()];
+    for (int bit = 0; bit < annotationTypes.size(); bit++) {
+      String type = annotationTypes.get(bit);
+      Class<? extends BugChecker> checker = CHECKERS.get(type);
+      if (checker != null) {
+        BugPattern pattern = checker.getAnnotation(BugPattern.class);
+        checkNames[bit] = pattern.name();
+        summaries[bit] = pattern.summary();
+      } else {
+        String simpleName = type.substring(type.lastIndexOf('.') + 1);
+        checkNames[bit] = simpleName;
+        summaries[bit] = "@" + simpleName + " should not be used in application code";
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path indexFile = null;
+    List<Path> api = new ArrayList<>();
+    List<String> annotations = ApiIndexTool.DEFAULT_ANNOTATIONS;
+    List<String> packages = null;
+    List<String> allowedApis = Collections.emptyList();
+    int threads = Runtime.getRuntime().availableProcessors();
+    List<Path> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--index":
+          indexFile = Paths.get(value(args, ++i));
+          break;
+        case "--api":
+          api.add(Paths.get(value(args, ++i)));
+          break;
+        case "--annotations":
+          annotations = Arrays.asList(value(args, ++i).split(","));
+          break;
+        case "--packages":
+          packages = Arrays.asList(value(args, ++i).split(","));
+          break;
+        case "--allow":
+          allowedApis = Arrays.asList(value(args, ++i).split(","));
+          break;
+        case "--threads":
+          threads = Integer.parseInt(value(args, ++i));
+          break;
+        default:
+          inputs.add(Paths.get(args[i]));
+      }
+    }
+    if ((indexFile == null) == api.isEmpty() || inputs.isEmpty()) {
+      System.err.println("Usage: BytecodeScanner (--index <file> | --api <jar or directory>...)"
+          + " [--annotations <types>] [--packages <prefixes>] [--allow <apis>]"
+          + " [--threads <count>] <jar or directory>...");
+      System.exit(2);
+      return;
+    }
+    if (packages == null) {
+      packages = CheckerOptions.defaultPackages(annotations);
+    }
+    ApiIndex index = indexFile != null
+        ? ApiIndex.open(indexFile)
+        : ApiIndexTool.build(annotations, new PackagePrefixes(packages), api).build();
+    List<Finding> findings = new BytecodeScanner(index, allowedApis).scan(inputs, threads);
+    for (Finding finding : findings) {
+      System.out.println(finding);
+    }
+    System.exit(findings.isEmpty() ? 0 : 1);
+  }
+
+  /** Scans the jars and directories on a fork-join pool and returns the findings in order. */
+  List<Finding> scan(List<Path> inputs, int threads) throws IOException, InterruptedException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      // A parallel stream started from within the pool runs its tasks there.
+      return pool.submit(() -> inputs.parallelStream()
+          .flatMap(input -> {
+            try {
+              return scan(input).stream();
+            } catch (IOException e) {
+              throw new UncheckedIOException("Could not scan " + input, e);
+            }
+          })
+          .collect(Collectors.toList()))
+          .get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Scans the classes of a jar or directory. */
+  List<Finding> scan(Path input) throws IOException {
+    List<Finding> findings = new ArrayList<>();
+    if (Files.isDirectory(input)) {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(input)) {
+        files = walk.filter(p -> p.toString().endsWith(".class")).sorted()
+            .collect(Collectors.toList());
+      }
+      for (Path file : files) {
+        scan(file.toString(), Files.readAllBytes(file), findings);
+      }
+    } else {
+      try (ZipFile zip = new ZipFile(input.toFile())) {
+        List<? extends ZipEntry> entries = zip.stream()
+            .filter(e -> !e.isDirectory() && e.getName().endsWith(".class"))
+            .collect(Collectors.toList());
+        for (ZipEntry entry : entries) {
+          if (entry.getName().endsWith("module-info.class")) {
+            continue;
+          }
+          try (InputStream in = zip.getInputStream(entry)) {
+            scan(input + "!/" + entry.getName(), ClassFiles.readAll(in), findings);
+          }
+        }
+      }
+    }
+    return findings;
+  }
+
+  private void scan(String source, byte[] bytes, List<Finding> findings) throws IOException {
+    ClassFile.References references;
+    try {
+      references = ClassFile.parseReferences(bytes);
+    } catch (IOException e) {
+      throw new IOException("Could not read " + source, e);
+    }
+    Set<String> seen = new HashSet<>();
+    for (ClassFile.Reference reference : references.references) {
+      if (reference.owner.equals(references.className)) {
+        continue;
+      }
+      String key;
+      if (reference.isMember()) {
+        // Uses of members that carry no annotation of their own are covered by the reference to
+        // their class, which every field and method reference includes.
+        key = ApiIndex.memberKey(reference.owner, reference.name, reference.descriptor);
+      } else {
+        key = ApiIndex.classKey(reference.owner);
+      }
+      if (!seen.add(key)) {
+        continue;
+      }
+      ApiIndex.Entry entry = index.find(key);
+      if (entry == null || allowed.matches(apiName(reference))) {
+        continue;
+      }
+      for (int bit = 0; bit < checkNames.length; bit++) {
+        if (entry.has(bit)) {
+          findings.add(new Finding(source, checkNames[bit], summaries[bit],
+              apiName(reference), entry.value(bit)));
+        }
+      }
+    }
+  }
+
+  private static String apiName(ClassFile.Reference reference) {
+    String owner = reference.owner.replace('/', '.');
+    return reference.isMember() ? owner + "#" + reference.name : owner;
+  }
+
+  private static String value(String[] args, int i) {
+    if (i >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+    }
+    return args[i];
+  }
+
+  /** A use of an annotated API. */
+  static final class Finding {
+    /** The class file, such as {@code app.jar!/com/example/Client.class}. */
+    final String source;
+
+    /** The name of the check, such as {@code GrpcInternal}. */
+    final String checkName;
+
+    final String summary;
+
+    /** The binary name of the class, followed by {@code #} and the member name for members. */
+    final String api;
+
+    /** The value of the annotation, such as an issue link, or null. */
+    final String link;
+
+    Finding(String source, String checkName, String summary, String api, String link) {
+      this.source = source;
+      this.checkName = checkName;
+      this.summary = summary;
+      this.api = api;
+      this.link = link == null || link.isEmpty() ? null : link;
+    }
+
+    @Override
+    public String toString() {
+      return source + ": [" + checkName + "] " + summary + ": " + api
+          + (link == null ? "" : " (see " + link + ")");
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.scanner.ScannerSupplier;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Checks single source files of a module on request, for editors that show the diagnostics
+ * while a file is being edited.
+ *
+ * <pre>
+ * java -cp error_prone_core.jar:grpc-java-api-checker.jar \
+ *     io.grpc.annotations.checkers.CheckerDaemon \
+ *     -classpath &lt;module classpath&gt; -sourcepath src/main/java [-XepOpt:GrpcApiChecker:...]
+ * </pre>
+ *
+ * <p>Each line read from standard input is a command, answered on standard output by JSON lines
+ * of which the last has {@code "done": true}:
+ *
+ * <ul>
+ *   <li>{@code check <file>} answers with a line for each diagnostic of the file, and a last
+ *       line telling whether the result was cached and how long the check took.
+ *   <li>{@code invalidate} forgets all results.
+ *   <li>{@code quit}, or the end of the input, stops the daemon.
+ * </ul>
+ *
+ * <p>A file is checked on its own; other sources of the module are only read from the source
+ * path as far as the file refers to them, and nothing is written. The file manager, with the
+ * open classpath jars, and the caches that the checkers keep for the life of the JVM, such as
+ * {@link SharedVerdicts} if {@code SharedCacheSize} is set, stay warm between checks.
+ *
+ * <p>The result of each file is kept until the file, one of the source files its check read
+ * from the source path, or the classpath changes, so asking again for an unchanged file costs
+ * only hashing what it depends on. Classpath jars are compared by size and modification time.
+ * Classpath directories are watched for changes to the files anywhere below them, so that a check
+ * does not visit those files; a directory that cannot be watched, such as one that does not exist
+ * yet, is compared by the number, total size and latest modification time of its files until it
+ * can be. Where the platform's watch service polls rather than being notified, as on macOS,
+ * changes may take seconds to be seen; {@code invalidate} forgets all results at once. Results
+ * with compilation errors are not kept, as a source file added since may resolve them.
+ */
+public final class CheckerDaemon {
+
+  private static final List<String> CHECK_OPTIONS =
+      Arrays.asList("-proc:none", "-implicit:none", "-XDshould-stop.ifNoError=FLOW");
+
+  private final JavaCompiler compiler = new BaseErrorProneJavaCompiler(
+      ScannerSupplier.fromBugCheckerClasses(
+          InternalChecker.class, ExperimentalApiChecker.class, AnnotatedApiChecker.class));
+  private final StandardJavaFileManager fileManager;
+  private final List<File> classpath = new ArrayList<>();
+  private final List<String> options = new ArrayList<>(CHECK_OPTIONS);
+
+  // The result of each file checked, by absolute path.
+  private final Map<Path, Result> results = new HashMap<>();
+
+  private final DirectoryStamps directoryStamps = new DirectoryStamps();
+
+  /**
+   * Creates a daemon for a module. {@code -classpath} and {@code -sourcepath} set up the file
+   * manager once; all other arguments are passed to each compilation.
+   */
+  public CheckerDaemon(List<String> args) throws IOException {
+    fileManager = compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8);
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      switch (arg) {
+        case "-cp":
+        case "-classpath":
+        case "--class-path":
+          classpath.addAll(files(value(args, ++i, arg)));
+          fileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+          break;
+        case "-sourcepath":
+        case "--source-path":
+          fileManager.setLocation(StandardLocation.SOURCE_PATH, files(value(args, ++i, arg)));
+          break;
+        default:
+          options.add(arg);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    CheckerDaemon daemon = new CheckerDaemon(Arrays.asList(args));
+    daemon.serve(
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+        new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+  }
+
+  /** Answers commands until the input ends or asks to quit. */
+  void serve(BufferedReader in, Writer out) throws IOException {
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      String command = line.trim();
+      if (command.isEmpty()) {
+        continue;
+      }
+      if (command.equals("quit")) {
+        break;
+      }
+      List<String> response;
+      if (command.equals("invalidate")) {
+        response = Collections.singletonList(
+            "{\"done\": true, \"invalidated\": " + results.size() + "}");
+        results.clear();
+      } else if (command.startsWith("check ")) {
+        response = check(Paths.get(command.substring("check ".length()).trim()));
+      } else {
+        response = Collections.singletonList(
+            "{\"done\": true, \"error\": " + FindingsWriter.quote("Unknown command: " + command)
+                + "}");
+      }
+      for (String responseLine : response) {
+        out.write(responseLine);
+        out.write('\n');
+      }
+      out.flush();
+    }
+  }
+
+  /** Returns the diagnostics of a file as JSON lines, followed by the line that ends them. */
+  public List<String> check(Path file) {
+    long start = System.nanoTime();
+    Path path = file.toAbsolutePath().normalize();
+    String done = "{\"file\": " + FindingsWriter.quote(path.toString()) + ", \"done\": true";
+    byte[] content;
+    try {
+      content = Files.readAllBytes(path);
+    } catch (IOException e) {
+      results.remove(path);
+      return Collections.singletonList(
+          done + ", \"error\": " + FindingsWriter.quote("Could not read " + path) + "}");
+    }
+    String contentHash = sha256(content);
+    String classpathHash = classpathHash();
+    Result result = results.get(path);
+    boolean cached = result != null
+        && result.contentHash.equals(contentHash)
+        && result.classpathHash.equals(classpathHash)
+        && result.sourcesHash.equals(sourcesHash(result.sources));
+    if (!cached) {
+      results.remove(path);
+      Set<Path> sources = new LinkedHashSet<>();
+      List<String> diagnostics;
+      try {
+        diagnostics = compile(path, new String(content, StandardCharsets.UTF_8), sources);
+      } catch (RuntimeException e) {
+        return Collections.singletonList(
+            done + ", \"error\": " + FindingsWriter.quote(String.valueOf(e)) + "}");
+      }
+      String sourcesHash = sources.contains(null) ? null : sourcesHash(sources);
+      result = new Result(contentHash, classpathHash, sources, sourcesHash, diagnostics);
+      if (classpathHash != null && sourcesHash != null && !hasErrors(diagnostics)) {
+        results.put(path, result);
+      }
+    }
+    List<String> response = new ArrayList<>(result.diagnostics);
+    response.add(done + ", \"diagnostics\": " + result.diagnostics.size()
+        + ", \"cached\": " + cached
+        + ", \"millis\": " + (System.nanoTime() - start) / 1_000_000 + "}");
+    return response;
+  }
+
+  /**
+   * Compiles the file as far as the checkers need and returns its diagnostics as JSON lines.
+   * Adds the other source files that the compilation read to {@code sources}, or null if they
+   * cannot be told.
+   */
+  private List<String> compile(Path path, String content, Set<Path> sources) {
+    URI uri = path.toUri();
+    JavaFileObject source = new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return content;
+      }
+    };
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options,
+        null, Collections.singletonList(source));
+    if (task instanceof JavacTask) {
+      ((JavacTask) task).addTaskListener(new TaskListener() {
+        @Override
+        public void finished(TaskEvent event) {
+          if (event.getKind() == TaskEvent.Kind.PARSE && event.getSourceFile() != source) {
+            URI read = event.getSourceFile().toUri();
+            sources.add("file".equals(read.getScheme()) ? Paths.get(read) : null);
+          }
+        }
+      });
+    } else {
+      sources.add(null);
+    }
+    task.call();
+    List<String> lines = new ArrayList<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getSource() == null || !uri.equals(diagnostic.getSource().toUri())) {
+        continue;
+      }
+      String message = diagnostic.getMessage(Locale.ROOT);
+      String rule = "javac";
+      int end = message.indexOf("] ");
+      if (message.startsWith("[") && end > 0) {
+        rule = message.substring(1, end);
+        message = message.substring(end + 2);
+      } else if (diagnostic.getKind() != Diagnostic.Kind.ERROR) {
+        // javac's own warnings and notes are left to the build
+        continue;
+      }
+      lines.add("{\"rule\": " + FindingsWriter.quote(rule)
+          + ", \"severity\": " + FindingsWriter.quote(diagnostic.getKind().name())
+          + ", \"file\": " + FindingsWriter.quote(path.toString())
+          + ", \"line\": " + diagnostic.getLineNumber()
+          + ", \"column\": " + diagnostic.getColumnNumber()
+          + ", \"message\": " + FindingsWriter.quote(message) + "}");
+    }
+    return Collections.unmodifiableList(lines);
+  }
+
+  /**
+   * Returns a hash of the size and modification time of each classpath jar and of the stamp of
+   * each classpath directory, or null if a directory cannot be read.
+   */
+  private String classpathHash() {
+    StringBuilder stamps = new StringBuilder();
+    for (File entry : classpath) {
+      stamps.append(entry.getAbsolutePath());
+      if (entry.isDirectory()) {
+        String stamp = directoryStamps.stamp(entry.toPath());
+        if (stamp == null) {
+          return null;
+        }
+        stamps.append(':').append(stamp);
+      } else {
+        stamps.append(':').append(entry.length()).append(':').append(entry.lastModified());
+      }
+      stamps.append(File.pathSeparatorChar);
+    }
+    return sha256(stamps.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Returns a hash of the paths and contents of source files, or null if one is unreadable. */
+  private static String sourcesHash(Collection<Path> sources) {
+    MessageDigest digest = IndexCache.sha256();
+    for (Path source : sources) {
+      try {
+        digest.update(source.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(Files.readAllBytes(source));
+        digest.update((byte) 0);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+    return IndexCache.hex(digest.digest());
+  }
+
+  private static boolean hasErrors(List<String> diagnostics) {
+    for (String diagnostic : diagnostics) {
+      if (diagnostic.startsWith("{\"rule\": \"javac\", ")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String sha256(byte[] bytes) {
+    return IndexCache.hex(IndexCache.sha256().digest(bytes));
+  }
+
+  private static List<File> files(String path) {
+    List<File> files = new ArrayList<>();
+    for (String entry : path.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        files.add(new File(entry));
+      }
+    }
+    return files;
+  }
+
+  private static String value(List<String> args, int i, String option) {
+    if (i >= args.size()) {
+      throw new IllegalArgumentException("Missing value for " + option);
+    }
+    return args.get(i);
+  }
+
+  /**
+   * Stamps of classpath directories that change whenever a file below them does. Watched
+   * directories are stamped with the number of the last change seen in them, which only takes
+   * draining the watch service's events; other directories are walked.
+   */
+  private static final class DirectoryStamps {
+    // Null if the file system cannot watch directories.
+    private final WatchService watchService = newWatchService();
+    // The classpath directory that each watched directory is below.
+    private final Map<WatchKey, Path> roots = new HashMap<>();
+    // The number of the last change seen below each watched classpath directory.
+    private final Map<Path, Long> lastChanges = new HashMap<>();
+    private long changes;
+
+    /** Returns the stamp of a classpath directory, or null if it cannot be read. */
+    String stamp(Path directory) {
+      drain();
+      if (!lastChanges.containsKey(directory) && watchService != null) {
+        try {
+          watch(directory, directory);
+          lastChanges.put(directory, ++changes);
+        } catch (IOException | UncheckedIOException e) {
+          unwatch(directory);
+        }
+      }
+      Long lastChange = lastChanges.get(directory);
+      return lastChange != null ? "watched:" + lastChange : walk(directory);
+    }
+
+    /** Notes the changes reported since the last check, watching new subdirectories. */
+    private void drain() {
+      if (watchService == null) {
+        return;
+      }
+      for (WatchKey key = watchService.poll(); key != null; key = watchService.poll()) {
+        Path root = roots.get(key);
+        Path watched = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && root != null) {
+            Path created = watched.resolve((Path) event.context());
+            if (Files.isDirectory(created, LinkOption.NOFOLLOW_LINKS)) {
+              try {
+                watch(created, root);
+              } catch (IOException | UncheckedIOException e) {
+                unwatch(root);
+              }
+            }
+          }
+          // other events, and OVERFLOW for events that were lost, are changes all the same
+        }
+        if (root != null && lastChanges.containsKey(root)) {
+          lastChanges.put(root, ++changes);
+        }
+        if (!key.reset()) {
+          roots.remove(key);
+          if (watched.equals(root)) {
+            // the classpath directory itself is gone; it is walked until it can be watched again
+            unwatch(root);
+          }
+        }
+      }
+    }
+
+    private void watch(Path directory, Path root) throws IOException {
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+            throws IOException {
+          roots.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), root);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+
+    private void unwatch(Path root) {
+      lastChanges.remove(root);
+      for (Iterator<Map.Entry<WatchKey, Path>> i = roots.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry<WatchKey, Path> entry = i.next();
+        if (entry.getValue().equals(root)) {
+          entry.getKey().cancel();
+          i.remove();
+        }
+      }
+    }
+
+    /**
+     * Returns the number, total size and latest modification time of the files below a
+     * directory, or null if it cannot be read.
+     */
+    private static String walk(Path directory) {
+      long[] files = new long[3];
+      try (Stream<Path> walk = Files.walk(directory)) {
+        walk.filter(Files::isRegularFile).forEach(file -> {
+          File classFile = file.toFile();
+          files[0]++;
+          files[1] += classFile.length();
+          files[2] = Math.max(files[2], classFile.lastModified());
+        });
+      } catch (IOException | UncheckedIOException e) {
+        return null;
+      }
+      return files[0] + ":" + files[1] + ":" + files[2];
+    }
+
+    private static WatchService newWatchService() {
+      try {
+        return FileSystems.getDefault().newWatchService();
+      } catch (IOException | UnsupportedOperationException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * The diagnostics of a file, and the hashes they are valid for: of the file, of the classpath
+   * and of the other source files read.
+   */
+  private static final class Result {
+    final String contentHash;
+    final String classpathHash;
+    final Set<Path> sources;
+    final String sourcesHash;
+    final List<String> diagnostics;
+
+    Result(String contentHash, String classpathHash, Set<Path> sources, String sourcesHash,
+        List<String> diagnostics) {
+      this.contentHash = contentHash;
+      this.classpathHash = classpathHash;
+      this.sources = sources;
+      this.sourcesHash = sourcesHash;
+      this.diagnostics = diagnostics;
+    }
+  }
+}
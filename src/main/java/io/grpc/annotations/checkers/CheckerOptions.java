@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.BugPattern.SeverityLevel;
+import com.google.errorprone.ErrorProneFlags;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Options shared by all checkers, read from {@code -XepOpt:GrpcApiChecker:<name>=<value>} flags.
+ */
+final class CheckerOptions {
+
+  static final String FLAG_PREFIX = "GrpcApiChecker:";
+
+  private static final List<String> DEFAULT_PACKAGES = Collections.singletonList("io.grpc");
+
+  private static final int DEFAULT_SHARED_CACHE_SIZE = 0;
+
+  /** Annotations reported by {@link InternalChecker}. */
+  final List<AnnotationType> internalAnnotations;
+
+  /** Annotations reported by {@link ExperimentalApiChecker}. */
+  final List<AnnotationType> experimentalApiAnnotations;
+
+  /** Annotations reported by {@link AnnotatedApiChecker}. */
+  final List<AnnotationType> otherAnnotations;
+
+  /**
+   * Only symbols in these packages, or packages nested in them, are checked. Unless configured,
+   * they are those of {@link #defaultPackages}.
+   */
+  final List<String> packageNames;
+  final PackagePrefixes packages;
+
+  /** Patterns of APIs whose uses are not reported, see {@link ApiPatterns}. */
+  final List<String> allowedApis;
+
+  /** An {@link ApiIndex} to answer lookups for symbols loaded from class files, or null. */
+  final Path index;
+
+  /**
+   * A directory of {@link ApiIndex} files of grpc-java releases, see {@link ApiSnapshots}, or
+   * null.
+   */
+  final Path snapshots;
+
+  /** A directory to keep an {@link ApiIndex} of each classpath jar in, or null. */
+  final Path cacheDir;
+
+  /**
+   * Whether to skip compilation units that neither belong to, import from, nor mention the
+   * checked packages. Uses of types that such a unit only reaches through other types, such as
+   * the return type of a method declared elsewhere, are then not reported.
+   */
+  final boolean skipUnrelatedFiles;
+
+  /** Whether to skip top-level classes annotated with an annotation named {@code Generated}. */
+  final boolean skipGenerated;
+
+  /**
+   * Directories whose source files are skipped, each normalized to start and end with a slash
+   * so that it matches whole path segments.
+   */
+  final List<String> generatedSourceDirs;
+
+  /** A file of accepted uses, see {@link Baseline}, or null. */
+  final Path baseline;
+
+  /** Whether to write the uses found to the baseline file instead of reporting them. */
+  final boolean writeBaseline;
+
+  /**
+   * The directory that the source files of baseline entries are relative to, or null for the
+   * directory of the baseline file.
+   */
+  final Path baselineRoot;
+
+  /**
+   * The number of classes from jars whose verdicts are kept across the compilations of a JVM,
+   * see {@link SharedVerdicts}, or 0 to keep none, which is the default.
+   */
+  final int sharedCacheSize;
+
+  /** How uses are reported. */
+  final Report report;
+
+  /** A file to write the {@link CheckerStats} of each compilation to, or null. */
+  final Path statsFile;
+
+  /** A file to append each reported use to, see {@link FindingsWriter}, or null. */
+  final Path findingsFile;
+
+  /** A file to write the APIs used by the compilation to, see {@link Inventory}, or null. */
+  final Path inventory;
+
+  private CheckerOptions(ErrorProneFlags flags) {
+    this.internalAnnotations = annotationTypes(flags, "InternalAnnotations", "io.grpc.Internal");
+    this.experimentalApiAnnotations =
+        annotationTypes(flags, "ExperimentalApiAnnotations", "io.grpc.ExperimentalApi");
+    this.otherAnnotations = annotationTypes(flags, "Annotations");
+    this.packageNames = flags.getList(FLAG_PREFIX + "Packages")
+        .orElseGet(() -> defaultPackages(annotationTypeNames()));
+    this.packages = new PackagePrefixes(packageNames);
+    this.allowedApis = flags.getList(FLAG_PREFIX + "Allow").orElse(Collections.emptyList());
+    this.index = flags.get(FLAG_PREFIX + "Index").map(Paths::get).orElse(null);
+    this.snapshots = flags.get(FLAG_PREFIX + "Snapshots").map(Paths::get).orElse(null);
+    this.cacheDir = flags.get(FLAG_PREFIX + "CacheDir").map(Paths::get).orElse(null);
+    this.skipUnrelatedFiles =
+        flags.getBoolean(FLAG_PREFIX + "SkipUnrelatedFiles").orElse(false);
+    this.skipGenerated = flags.getBoolean(FLAG_PREFIX + "SkipGenerated").orElse(false);
+    List<String> generatedSourceDirs = new ArrayList<>();
+    for (String dir :
+        flags.getList(FLAG_PREFIX + "GeneratedSourceDirs").orElse(Collections.emptyList())) {
+      String normalized = dir.trim().replace('\\', '/').replaceAll("^/+|/+$", "");
+      if (!normalized.isEmpty()) {
+        generatedSourceDirs.add("/" + normalized + "/");
+      }
+    }
+    this.generatedSourceDirs = Collections.unmodifiableList(generatedSourceDirs);
+    this.baseline = flags.get(FLAG_PREFIX + "Baseline").map(Paths::get).orElse(null);
+    this.writeBaseline = flags.getBoolean(FLAG_PREFIX + "WriteBaseline").orElse(false);
+    this.baselineRoot = flags.get(FLAG_PREFIX + "BaselineRoot").map(Paths::get).orElse(null);
+    this.sharedCacheSize =
+        flags.getInteger(FLAG_PREFIX + "SharedCacheSize").orElse(DEFAULT_SHARED_CACHE_SIZE);
+    this.report = flags.getEnum(FLAG_PREFIX + "Report", Report.class).orElse(Report.EACH_USE);
+    this.statsFile = flags.get(FLAG_PREFIX + "StatsFile").map(Paths::get).orElse(null);
+    this.findingsFile = flags.get(FLAG_PREFIX + "FindingsFile").map(Paths::get).orElse(null);
+    this.inventory = flags.get(FLAG_PREFIX + "Inventory").map(Paths::get).orElse(null);
+  }
+
+  static CheckerOptions fromFlags(ErrorProneFlags flags) {
+    return new CheckerOptions(flags);
+  }
+
+  /** Returns the names of all annotation types that some checker reports, sorted. */
+  List<String> annotationTypeNames() {
+    TreeSet<String> names = new TreeSet<>();
+    for (List<AnnotationType> types :
+        Arrays.asList(internalAnnotations, experimentalApiAnnotations, otherAnnotations)) {
+      for (AnnotationType type : types) {
+        names.add(type.name);
+      }
+    }
+    return new ArrayList<>(names);
+  }
+
+  /**
+   * Returns the packages checked when none are configured: {@code io.grpc} and the package of
+   * each annotation type, so that APIs next to a configured annotation type, such as those of
+   * {@code com.acme.Beta} or of gRPC shaded into {@code com.acme.shaded.io.grpc}, are checked.
+   */
+  static List<String> defaultPackages(List<String> annotationTypes) {
+    TreeSet<String> packages = new TreeSet<>(DEFAULT_PACKAGES);
+    for (String type : annotationTypes) {
+      packages.add(packageName(type));
+    }
+    return new ArrayList<>(packages);
+  }
+
+  /**
+   * Returns the package of a type given by its canonical name: the segments before the first one
+   * that starts with an upper case letter, or else all but the last segment.
+   */
+  static String packageName(String typeName) {
+    int end = typeName.lastIndexOf('.');
+    for (int start = 0; start < typeName.length(); ) {
+      int dot = typeName.indexOf('.', start);
+      if (dot < 0) {
+        break;
+      }
+      if (Character.isUpperCase(typeName.charAt(start))) {
+        end = start - 1;
+        break;
+      }
+      start = dot + 1;
+    }
+    return end < 0 ? "" : typeName.substring(0, end);
+  }
+
+  private static List<AnnotationType> annotationTypes(
+      ErrorProneFlags flags, String name, String... defaults) {
+    List<AnnotationType> types = new ArrayList<>();
+    for (String spec : flags.getList(FLAG_PREFIX + name).orElse(Arrays.asList(defaults))) {
+      if (!spec.trim().isEmpty()) {
+        types.add(AnnotationType.parse(spec.trim()));
+      }
+    }
+    return Collections.unmodifiableList(types);
+  }
+
+  /**
+   * How uses of annotated APIs are reported. Aggregated diagnostics are reported by the time the
+   * last compilation unit has been scanned, so javac counts them with the others, except in
+   * compilations of a single file; see {@link UsageAggregator}.
+   */
+  enum Report {
+    /** One diagnostic per use. */
+    EACH_USE,
+    /** One diagnostic per API in each file, at its first use, with the number of uses. */
+    PER_FILE,
+    /** One diagnostic per API in the compilation, at its first use, with the number of uses. */
+    PER_COMPILATION,
+  }
+
+  /**
+   * An annotation type to report, given as {@code com.acme.Beta} or, to override the severity
+   * of the checker, {@code com.acme.Beta:WARNING}.
+   */
+  static final class AnnotationType {
+    final String name;
+
+    /** The severity to report uses with, or null for the checker's default. */
+    final SeverityLevel severity;
+
+    private AnnotationType(String name, SeverityLevel severity) {
+      this.name = name;
+      this.severity = severity;
+    }
+
+    static AnnotationType parse(String spec) {
+      int colon = spec.indexOf(':');
+      if (colon < 0) {
+        return new AnnotationType(spec, null);
+      }
+      String severity = spec.substring(colon + 1).trim().toUpperCase(Locale.ROOT);
+      try {
+        return new AnnotationType(spec.substring(0, colon).trim(), SeverityLevel.valueOf(severity));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unknown severity in " + spec
+            + "; expected one of " + Arrays.toString(SeverityLevel.values()), e);
+      }
+    }
+
+    static List<String> names(List<AnnotationType> types) {
+      List<String> names = new ArrayList<>(types.size());
+      for (AnnotationType type : types) {
+        names.add(type.name);
+      }
+      return names;
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work the checkers do in one compilation and writes the counts as JSON to the file
+ * named by {@code -XepOpt:GrpcApiChecker:StatsFile} when the compilation finishes. Counters are
+ * {@link LongAdder}s, so checkers running on parallel threads do not contend on them.
+ */
+final class CheckerStats {
+
+  private static final Context.Key<CheckerStats> KEY = new Context.Key<>();
+
+  /** Owner walks at least this deep share the last bucket of the depth histogram. */
+  static final int MAX_DEPTH = 16;
+
+  private final Path file;
+  private final ConcurrentMap<String, Checker> checkers = new ConcurrentHashMap<>();
+  private volatile String classpathProbe = "not run";
+  private final LongAdder unitsChecked = new LongAdder();
+  private final LongAdder unitsSkipped = new LongAdder();
+  private final LongAdder generatedClassesSkipped = new LongAdder();
+  private final LongAdder uncheckedSymbols = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+  private final LongAdder indexLookups = new LongAdder();
+  private final LongAdder sharedHits = new LongAdder();
+  private final LongAdder sharedMisses = new LongAdder();
+  private final LongAdder superMethodLookups = new LongAdder();
+  private final LongAdder completions = new LongAdder();
+  private final LongAdder[] ownerWalkDepths = new LongAdder[MAX_DEPTH + 1];
+
+  /**
+   * Returns the stats of the compilation, or null if no stats file is configured. The file is
+   * written when the compilation finishes.
+   */
+  static CheckerStats instance(Context context, CheckerOptions options) {
+    if (options.statsFile == null) {
+      return null;
+    }
+    CheckerStats stats = context.get(KEY);
+    if (stats == null) {
+      stats = new CheckerStats(options.statsFile);
+      context.put(KEY, stats);
+      CheckerStats written = stats;
+      MultiTaskListener.instance(context).add(new TaskListener() {
+        @Override
+        public void finished(TaskEvent event) {
+          if (event.getKind() == TaskEvent.Kind.COMPILATION) {
+            written.write();
+          }
+        }
+      });
+    }
+    return stats;
+  }
+
+  private CheckerStats(Path file) {
+    this.file = file;
+    for (int i = 0; i < ownerWalkDepths.length; i++) {
+      ownerWalkDepths[i] = new LongAdder();
+    }
+  }
+
+  /** Returns the counters of the checker with the given name. */
+  Checker forChecker(String name) {
+    return checkers.computeIfAbsent(name, n -> new Checker());
+  }
+
+  /** Records whether the checked annotation types were found, and if that was remembered. */
+  void recordClasspathProbe(boolean found, boolean cached) {
+    classpathProbe = (found ? "found" : "absent") + (cached ? " (cached)" : "");
+  }
+
+  /** Records a compilation unit and whether its trees were skipped. */
+  void recordCompilationUnit(boolean skipped) {
+    (skipped ? unitsSkipped : unitsChecked).increment();
+  }
+
+  /** Records a top-level class that was skipped as generated code. */
+  void recordGeneratedClass() {
+    generatedClassesSkipped.increment();
+  }
+
+  /** Records a symbol outside the checked packages, which is rejected before the cache. */
+  void recordUncheckedSymbol() {
+    uncheckedSymbols.increment();
+  }
+
+  void recordCacheHit() {
+    cacheHits.increment();
+  }
+
+  /** Records a lookup that had to look at the given number of uncached symbols. */
+  void recordCacheMiss(int ownerWalkDepth) {
+    cacheMisses.increment();
+    ownerWalkDepths[Math.min(ownerWalkDepth, MAX_DEPTH)].increment();
+  }
+
+  void recordIndexLookup() {
+    indexLookups.increment();
+  }
+
+  /** Records a lookup in the verdicts shared across compilations. */
+  void recordSharedLookup(boolean hit) {
+    (hit ? sharedHits : sharedMisses).increment();
+  }
+
+  /** Records a symbol that javac had not completed before its annotations were read. */
+  void recordCompletion() {
+    completions.increment();
+  }
+
+  void recordSuperMethodLookup() {
+    superMethodLookups.increment();
+  }
+
+  private void write() {
+    try {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      Path temporary = Files.createTempFile(
+          file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+      try {
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+          out.write(toJson());
+        }
+        try {
+          Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write checker stats to " + file, e);
+    }
+  }
+
+  String toJson() {
+    StringBuilder json = new StringBuilder("{\n  \"checkers\": {");
+    String separator = "\n";
+    for (Map.Entry<String, Checker> checker : new TreeMap<>(checkers).entrySet()) {
+      Checker counts = checker.getValue();
+      json.append(separator)
+          .append("    \"").append(checker.getKey()).append("\": {")
+          .append("\"treesMatched\": ").append(counts.treesMatched.sum())
+          .append(", \"symbolsResolved\": ").append(counts.symbolsResolved.sum())
+          .append(", \"matches\": ").append(counts.matches.sum())
+          .append(", \"nanos\": ").append(counts.nanos.sum())
+          .append('}');
+      separator = ",\n";
+    }
+    json.append("\n  },\n")
+        .append("  \"classpathProbe\": \"").append(classpathProbe).append("\",\n")
+        .append("  \"compilationUnits\": {\"checked\": ").append(unitsChecked.sum())
+        .append(", \"skipped\": ").append(unitsSkipped.sum()).append("},\n")
+        .append("  \"generatedClassesSkipped\": ").append(generatedClassesSkipped.sum())
+        .append(",\n")
+        .append("  \"uncheckedSymbols\": ").append(uncheckedSymbols.sum()).append(",\n")
+        .append("  \"verdictCache\": {\"hits\": ").append(cacheHits.sum())
+        .append(", \"misses\": ").append(cacheMisses.sum()).append("},\n")
+        .append("  \"ownerWalkDepths\": [");
+    for (int i = 0; i < ownerWalkDepths.length; i++) {
+      json.append(i == 0 ? "" : ", ").append(ownerWalkDepths[i].sum());
+    }
+    json.append("],\n")
+        .append("  \"completions\": ").append(completions.sum()).append(",\n")
+        .append("  \"superMethodLookups\": ").append(superMethodLookups.sum()).append(",\n")
+        .append("  \"indexLookups\": ").append(indexLookups.sum()).append(",\n")
+        .append("  \"sharedVerdicts\": {\"hits\": ").append(sharedHits.sum())
+        .append(", \"misses\": ").append(sharedMisses.sum()).append("}\n")
+        .append("}\n");
+    return json.toString();
+  }
+
+  /** The counters of one checker. */
+  static final class Checker {
+    private final LongAdder treesMatched = new LongAdder();
+    private final LongAdder symbolsResolved = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    /** Records a tree the checker looked at, whether it was reported and how long it took. */
+    void recordTree(boolean matched, long elapsedNanos) {
+      treesMatched.increment();
+      if (matched) {
+        matches.increment();
+      }
+      nanos.add(elapsedNanos);
+    }
+
+    /** Records a tree that had a symbol to look up. */
+    void recordSymbol() {
+      symbolsResolved.increment();
+    }
+  }
+}
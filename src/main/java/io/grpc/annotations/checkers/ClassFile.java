@@ -0,0 +1,424 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of a class file that matter for finding annotated APIs: the class name, its enclosing
+ * class, and the annotations on the class and its members. Both visible and invisible annotations
+ * are read, since {@code @Internal} and {@code @ExperimentalApi} are retained in class files but
+ * not at runtime.
+ */
+final class ClassFile {
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PROTECTED = 0x0004;
+  private static final int ACC_SYNTHETIC = 0x1000;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  /** Internal name of the class, such as {@code io/grpc/Metadata$Key}. */
+  final String name;
+
+  /** Internal name of the class this one is a member of, or null for other classes. */
+  final String outerName;
+
+  final List<Annotation> annotations;
+  final List<Member> members;
+
+  private ClassFile(
+      String name, String outerName, List<Annotation> annotations, List<Member> members) {
+    this.name = name;
+    this.outerName = outerName;
+    this.annotations = annotations;
+    this.members = members;
+  }
+
+  /** Returns true if this is a {@code package-info} class. */
+  boolean isPackageInfo() {
+    return name.endsWith("/package-info") || name.equals("package-info");
+  }
+
+  /** Returns the internal name of the package, such as {@code io/grpc}, or "" if unnamed. */
+  String packageName() {
+    int slash = name.lastIndexOf('/');
+    return slash < 0 ? "" : name.substring(0, slash);
+  }
+
+  static ClassFile parse(byte[] bytes) throws IOException {
+    return new Parser(bytes).parse();
+  }
+
+  /**
+   * Reads the classes, fields and methods a class refers to from its constant pool, without
+   * looking at the rest of the class file.
+   */
+  static References parseReferences(byte[] bytes) throws IOException {
+    return new Parser(bytes).parseReferences();
+  }
+
+  /** An annotation on a class or member. */
+  static final class Annotation {
+    /** Internal name of the annotation type, such as {@code io/grpc/ExperimentalApi}. */
+    final String type;
+
+    /** The string given for the {@code value} element, or null if there is none. */
+    final String value;
+
+    Annotation(String type, String value) {
+      this.type = type;
+      this.value = value;
+    }
+  }
+
+  /** A field or method. */
+  static final class Member {
+    final int access;
+    final String name;
+    final String descriptor;
+    final List<Annotation> annotations;
+
+    Member(int access, String name, String descriptor, List<Annotation> annotations) {
+      this.access = access;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.annotations = annotations;
+    }
+
+    /** Returns true if the member is public or protected and not synthetic. */
+    boolean isApi() {
+      return (access & (ACC_PUBLIC | ACC_PROTECTED)) != 0 && (access & ACC_SYNTHETIC) == 0;
+    }
+  }
+
+  /** The name of a class and the classes, fields and methods it refers to. */
+  static final class References {
+    /** Internal name of the referring class. */
+    final String className;
+
+    final List<Reference> references;
+
+    References(String className, List<Reference> references) {
+      this.className = className;
+      this.references = references;
+    }
+  }
+
+  /** A class, or a field or method of a class, named in a constant pool. */
+  static final class Reference {
+    /** Internal name of the class, which for a member is the class the member is accessed on. */
+    final String owner;
+
+    /** Name of the field or method, or null for a class. */
+    final String name;
+
+    /** Descriptor of the field or method, or null for a class. */
+    final String descriptor;
+
+    Reference(String owner, String name, String descriptor) {
+      this.owner = owner;
+      this.name = name;
+      this.descriptor = descriptor;
+    }
+
+    boolean isMember() {
+      return name != null;
+    }
+  }
+
+  private static final class Parser {
+    private final DataInputStream in;
+    private int[] tags;
+    private Object[] constants;
+
+    Parser(byte[] bytes) {
+      this.in = new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    ClassFile parse() throws IOException {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a class file");
+      }
+      in.readUnsignedShort(); // minor_version
+      in.readUnsignedShort(); // major_version
+      readConstantPool();
+      in.readUnsignedShort(); // access_flags
+      String name = className(in.readUnsignedShort());
+      in.readUnsignedShort(); // super_class
+      skip(2 * in.readUnsignedShort()); // interfaces
+
+      List<Member> members = new ArrayList<>();
+      readMembers(members); // fields
+      readMembers(members); // methods
+
+      List<Annotation> annotations = new ArrayList<>();
+      String outerName = null;
+      int attributeCount = in.readUnsignedShort();
+      for (int i = 0; i < attributeCount; i++) {
+        String attributeName = utf8(in.readUnsignedShort());
+        int length = in.readInt();
+        if (isAnnotationsAttribute(attributeName)) {
+          readAnnotations(annotations);
+        } else if (attributeName.equals("InnerClasses")) {
+          int classes = in.readUnsignedShort();
+          for (int j = 0; j < classes; j++) {
+            int inner = in.readUnsignedShort();
+            int outer = in.readUnsignedShort();
+            in.readUnsignedShort(); // inner_name_index
+            in.readUnsignedShort(); // inner_class_access_flags
+            if (outer != 0 && name.equals(className(inner))) {
+              outerName = className(outer);
+            }
+          }
+        } else {
+          skip(length);
+        }
+      }
+      return new ClassFile(name, outerName, annotations, members);
+    }
+
+    References parseReferences() throws IOException {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a class file");
+      }
+      in.readUnsignedShort(); // minor_version
+      in.readUnsignedShort(); // major_version
+      readConstantPool();
+      in.readUnsignedShort(); // access_flags
+      String name = className(in.readUnsignedShort());
+
+      List<Reference> references = new ArrayList<>();
+      for (int i = 1; i < tags.length; i++) {
+        switch (tags[i]) {
+          case CONSTANT_CLASS:
+            String type = elementType(className(i));
+            if (type != null) {
+              references.add(new Reference(type, null, null));
+            }
+            break;
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+            int[] ref = (int[]) constants[i];
+            String owner = className(ref[0]);
+            if (owner.startsWith("[")) {
+              break; // such as clone() on an array
+            }
+            if (tags[ref[1]] != CONSTANT_NAME_AND_TYPE) {
+              throw new IOException("Bad name and type reference " + ref[1]);
+            }
+            int[] nameAndType = (int[]) constants[ref[1]];
+            references.add(
+                new Reference(owner, utf8(nameAndType[0]), utf8(nameAndType[1])));
+            break;
+          default:
+            break;
+        }
+      }
+      return new References(name, references);
+    }
+
+    /**
+     * Returns the class of a class constant, or the element class of an array class constant such
+     * as {@code [Lio/grpc/Metadata;}, or null for arrays of primitives.
+     */
+    private static String elementType(String name) {
+      if (!name.startsWith("[")) {
+        return name;
+      }
+      int start = 0;
+      while (name.charAt(start) == '[') {
+        start++;
+      }
+      return name.charAt(start) == 'L' ? name.substring(start + 1, name.length() - 1) : null;
+    }
+
+    private void readConstantPool() throws IOException {
+      int count = in.readUnsignedShort();
+      tags = new int[count];
+      constants = new Object[count];
+      for (int i = 1; i < count; i++) {
+        int tag = in.readUnsignedByte();
+        tags[i] = tag;
+        switch (tag) {
+          case CONSTANT_UTF8:
+            constants[i] = in.readUTF();
+            break;
+          case CONSTANT_CLASS:
+          case CONSTANT_STRING:
+          case CONSTANT_METHOD_TYPE:
+          case CONSTANT_MODULE:
+          case CONSTANT_PACKAGE:
+            constants[i] = in.readUnsignedShort();
+            break;
+          case CONSTANT_FIELDREF:
+          case CONSTANT_METHODREF:
+          case CONSTANT_INTERFACE_METHODREF:
+          case CONSTANT_NAME_AND_TYPE:
+            constants[i] = new int[] {in.readUnsignedShort(), in.readUnsignedShort()};
+            break;
+          case CONSTANT_INTEGER:
+          case CONSTANT_FLOAT:
+          case CONSTANT_DYNAMIC:
+          case CONSTANT_INVOKE_DYNAMIC:
+            skip(4);
+            break;
+          case CONSTANT_LONG:
+          case CONSTANT_DOUBLE:
+            skip(8);
+            i++; // takes two entries
+            break;
+          case CONSTANT_METHOD_HANDLE:
+            skip(3);
+            break;
+          default:
+            throw new IOException("Unknown constant pool tag " + tag + " at index " + i);
+        }
+      }
+    }
+
+    private void readMembers(List<Member> members) throws IOException {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+        int access = in.readUnsignedShort();
+        String name = utf8(in.readUnsignedShort());
+        String descriptor = utf8(in.readUnsignedShort());
+        List<Annotation> annotations = Collections.emptyList();
+        int attributeCount = in.readUnsignedShort();
+        for (int j = 0; j < attributeCount; j++) {
+          String attributeName = utf8(in.readUnsignedShort());
+          int length = in.readInt();
+          if (isAnnotationsAttribute(attributeName)) {
+            if (annotations.isEmpty()) {
+              annotations = new ArrayList<>();
+            }
+            readAnnotations(annotations);
+          } else {
+            skip(length);
+          }
+        }
+        members.add(new Member(access, name, descriptor, annotations));
+      }
+    }
+
+    private void readAnnotations(List<Annotation> annotations) throws IOException {
+      int count = in.readUnsignedShort();
+      for (int i = 0; i < count; i++) {
+        annotations.add(readAnnotation());
+      }
+    }
+
+    private Annotation readAnnotation() throws IOException {
+      String descriptor = utf8(in.readUnsignedShort());
+      String value = null;
+      int pairs = in.readUnsignedShort();
+      for (int i = 0; i < pairs; i++) {
+        String elementName = utf8(in.readUnsignedShort());
+        String elementValue = readElementValue();
+        if (elementName.equals("value")) {
+          value = elementValue;
+        }
+      }
+      // Descriptors have the form Lio/grpc/Internal;
+      return new Annotation(descriptor.substring(1, descriptor.length() - 1), value);
+    }
+
+    /** Reads an element value and returns it if it is a string, or null otherwise. */
+    private String readElementValue() throws IOException {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case 's':
+          return utf8(in.readUnsignedShort());
+        case 'B':
+        case 'C':
+        case 'D':
+        case 'F':
+        case 'I':
+        case 'J':
+        case 'S':
+        case 'Z':
+        case 'c':
+          skip(2);
+          return null;
+        case 'e':
+          skip(4);
+          return null;
+        case '@':
+          readAnnotation();
+          return null;
+        case '[':
+          int count = in.readUnsignedShort();
+          for (int i = 0; i < count; i++) {
+            readElementValue();
+          }
+          return null;
+        default:
+          throw new IOException("Unknown element value tag " + (char) tag);
+      }
+    }
+
+    private String utf8(int index) throws IOException {
+      if (index <= 0 || index >= tags.length || tags[index] != CONSTANT_UTF8) {
+        throw new IOException("Bad constant pool reference " + index);
+      }
+      return (String) constants[index];
+    }
+
+    private String className(int index) throws IOException {
+      if (index <= 0 || index >= tags.length || tags[index] != CONSTANT_CLASS) {
+        throw new IOException("Bad class reference " + index);
+      }
+      return utf8((Integer) constants[index]);
+    }
+
+    private void skip(int bytes) throws IOException {
+      if (in.skipBytes(bytes) != bytes) {
+        throw new EOFException();
+      }
+    }
+
+    private static boolean isAnnotationsAttribute(String name) {
+      return name.equals("RuntimeInvisibleAnnotations")
+          || name.equals("RuntimeVisibleAnnotations");
+    }
+  }
+}
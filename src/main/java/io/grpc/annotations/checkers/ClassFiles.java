@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** Reads the class files of a jar or a class directory. */
+final class ClassFiles {
+
+  private ClassFiles() {}
+
+  /**
+   * Parses the classes of the jar or directory that belong to packages matching the prefixes.
+   */
+  static List<ClassFile> read(Path input, PackagePrefixes packages) throws IOException {
+    List<ClassFile> classes = new ArrayList<>();
+    if (Files.isDirectory(input)) {
+      List<Path> files;
+      try (Stream<Path> walk = Files.walk(input)) {
+        files = walk.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+      }
+      for (Path file : files) {
+        String name = input.relativize(file).toString()
+            .replace(file.getFileSystem().getSeparator(), "/");
+        if (isIncluded(name, packages)) {
+          classes.add(ClassFile.parse(Files.readAllBytes(file)));
+        }
+      }
+    } else {
+      try (ZipFile zip = new ZipFile(input.toFile())) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (!entry.isDirectory() && isIncluded(entry.getName(), packages)) {
+            try (InputStream in = zip.getInputStream(entry)) {
+              classes.add(ClassFile.parse(readAll(in)));
+            }
+          }
+        }
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * Returns true if the path, relative to the root of a jar or class directory, names a class in
+   * one of the packages.
+   */
+  static boolean isIncluded(String path, PackagePrefixes packages) {
+    if (!path.endsWith(".class")
+        || path.startsWith("META-INF/")
+        || path.endsWith("module-info.class")) {
+      return false;
+    }
+    int slash = path.lastIndexOf('/');
+    return packages.matches(slash < 0 ? "" : path.substring(0, slash).replace('/', '.'));
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.util.Names;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Decides once per compilation whether any checked annotation type can be found, so that
+ * compilations of modules that do not depend on gRPC never try to resolve them.
+ *
+ * <p>A type counts as found if the compilation's sources declare it, a class file for it is on
+ * the classpath, or a source file that may declare it is on the source path. As which segments
+ * of a configured name are classes is not known, each binary name it may stand for is looked up,
+ * such as {@code io.grpc.Outer$Inner} for {@code io.grpc.Outer.Inner}. Compilations with a
+ * module path are not probed. The lookups are remembered for the life of the JVM, keyed by a
+ * fingerprint of the paths: the path, size and modification time of each jar, and for each
+ * directory whether it holds the files looked up.
+ */
+final class ClasspathProbe {
+
+  // Results by fingerprint; cleared when it grows past this many, as fingerprints change with
+  // every rebuilt jar.
+  private static final int MAX_RESULTS = 1000;
+  private static final ConcurrentMap<String, Boolean> results = new ConcurrentHashMap<>();
+
+  // Only known to file managers of Java 9 and later.
+  private static final Location MODULE_PATH = StandardLocation.locationFor("MODULE_PATH");
+
+  private ClasspathProbe() {}
+
+  /**
+   * Returns true if one of the annotation types may be used in the compilation. Also returns
+   * true if the paths cannot be listed, or the compilation has a module path.
+   */
+  static boolean mayFind(List<String> annotationTypes, Symtab symtab, Names names,
+      JavaFileManager fileManager, CheckerStats stats) {
+    Set<String> classNames = new LinkedHashSet<>();
+    Set<String> sourceNames = new LinkedHashSet<>();
+    for (String type : annotationTypes) {
+      for (String binaryName : binaryNames(type)) {
+        classNames.add(binaryName);
+        int nested = binaryName.indexOf('$');
+        sourceNames.add(nested < 0 ? binaryName : binaryName.substring(0, nested));
+      }
+    }
+    for (String type : classNames) {
+      // entered from the compilation's sources, or already loaded
+      if (symtab.getClassesForName(names.fromString(type)).iterator().hasNext()) {
+        return record(stats, true, false);
+      }
+    }
+    if (!(fileManager instanceof StandardJavaFileManager)) {
+      return true;
+    }
+    StandardJavaFileManager standardFileManager = (StandardJavaFileManager) fileManager;
+    Iterable<? extends File> classpath;
+    Iterable<? extends File> sourcepath;
+    try {
+      if (hasEntries(standardFileManager, MODULE_PATH)) {
+        return true;
+      }
+      classpath = standardFileManager.getLocation(StandardLocation.CLASS_PATH);
+      sourcepath = standardFileManager.getLocation(StandardLocation.SOURCE_PATH);
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      return true;
+    }
+    if (classpath == null) {
+      return true;
+    }
+    // without a source path, javac looks for sources on the classpath
+    StandardLocation sourceLocation =
+        sourcepath == null ? StandardLocation.CLASS_PATH : StandardLocation.SOURCE_PATH;
+    String fingerprint;
+    try {
+      fingerprint = annotationTypes
+          + fingerprint(classpath, classNames, sourcepath == null ? sourceNames : null)
+          + '|' + fingerprint(sourcepath, null, sourceNames);
+    } catch (IOException e) {
+      return true;
+    }
+    Boolean cached = results.get(fingerprint);
+    if (cached != null) {
+      return record(stats, cached, true);
+    }
+    boolean found;
+    try {
+      found = find(fileManager, StandardLocation.CLASS_PATH, JavaFileObject.Kind.CLASS, classNames)
+          || find(fileManager, sourceLocation, JavaFileObject.Kind.SOURCE, sourceNames);
+    } catch (IOException | IllegalArgumentException e) {
+      return true;
+    }
+    if (results.size() >= MAX_RESULTS) {
+      results.clear();
+    }
+    results.put(fingerprint, found);
+    return record(stats, found, false);
+  }
+
+  /**
+   * Returns the binary names that a canonical class name may stand for: the name itself, then
+   * the names of classes nested in as many other classes as it has segments to spare.
+   */
+  static List<String> binaryNames(String canonicalName) {
+    List<String> binaryNames = new ArrayList<>();
+    binaryNames.add(canonicalName);
+    char[] name = canonicalName.toCharArray();
+    for (int dot = canonicalName.lastIndexOf('.'); dot > 0;
+        dot = canonicalName.lastIndexOf('.', dot - 1)) {
+      name[dot] = '$';
+      binaryNames.add(new String(name));
+    }
+    return binaryNames;
+  }
+
+  private static boolean hasEntries(StandardJavaFileManager fileManager, Location location) {
+    if (!fileManager.hasLocation(location)) {
+      return false;
+    }
+    Iterable<? extends File> entries = fileManager.getLocation(location);
+    return entries != null && entries.iterator().hasNext();
+  }
+
+  private static boolean find(JavaFileManager fileManager, Location location,
+      JavaFileObject.Kind kind, Set<String> names) throws IOException {
+    if (!fileManager.hasLocation(location)) {
+      return false;
+    }
+    for (String name : names) {
+      if (fileManager.getJavaFileForInput(location, name, kind) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the fingerprint of a path, recording for directories whether they hold a class file
+   * of each of {@code classNames} and a source file of each of {@code sourceNames}.
+   */
+  private static String fingerprint(Iterable<? extends File> path, Set<String> classNames,
+      Set<String> sourceNames) throws IOException {
+    StringBuilder fingerprint = new StringBuilder();
+    if (path == null) {
+      return fingerprint.toString();
+    }
+    for (File entry : path) {
+      fingerprint.append(File.pathSeparatorChar).append(entry.getAbsolutePath());
+      if (entry.isDirectory()) {
+        appendFiles(fingerprint, entry, classNames, ".class");
+        appendFiles(fingerprint, entry, sourceNames, ".java");
+      } else if (entry.isFile()) {
+        fingerprint.append(':').append(entry.length())
+            .append(':').append(Files.getLastModifiedTime(entry.toPath()).toMillis());
+      }
+    }
+    return fingerprint.toString();
+  }
+
+  private static void appendFiles(
+      StringBuilder fingerprint, File directory, Set<String> names, String extension) {
+    if (names == null) {
+      return;
+    }
+    for (String name : names) {
+      File file = new File(directory, name.replace('.', File.separatorChar) + extension);
+      fingerprint.append(file.isFile() ? '+' : '-');
+    }
+  }
+
+  private static boolean record(CheckerStats stats, boolean found, boolean cached) {
+    if (stats != null) {
+      stats.recordClasspathProbe(found, cached);
+    }
+    return found;
+  }
+}
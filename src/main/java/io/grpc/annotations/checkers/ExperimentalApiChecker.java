@@ -20,10 +20,9 @@ import com.google.auto.service.AutoService;
 import com.google.errorprone.BugPattern;
 import com.google.errorprone.BugPattern.LinkType;
 import com.google.errorprone.BugPattern.SeverityLevel;
+import com.google.errorprone.ErrorProneFlags;
 import com.google.errorprone.bugpatterns.BugChecker;
-import com.google.errorprone.matchers.Description;
-import com.sun.source.tree.Tree;
-import java.util.Map.Entry;
+import java.util.Map;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.ExecutableElement;
@@ -40,27 +39,29 @@ import javax.lang.model.element.ExecutableElement;
 public final class ExperimentalApiChecker extends AnnotationChecker {
 
   public ExperimentalApiChecker() {
-    super("io.grpc.ExperimentalApi");
+    this(ErrorProneFlags.empty());
   }
 
-  private String findLink(AnnotationMirror annotation) {
-    // Currently, @ExperimentalApi may have a link.
-    for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation
-        .getElementValues().entrySet()) {
-      return entry.getValue().toString();
-    }
-    return null;
+  public ExperimentalApiChecker(ErrorProneFlags flags) {
+    this(CheckerOptions.fromFlags(flags));
+  }
+
+  private ExperimentalApiChecker(CheckerOptions options) {
+    super(options.experimentalApiAnnotations, options);
   }
 
+  /** Returns the {@code value} of the annotation, such as a tracking issue, if it is set. */
   @Override
-  protected Description describe(Tree tree, AnnotationMirror annotation) {
-    String link = findLink(annotation);
-    return Description.builder(
-        tree,
-        this.canonicalName(),
-        link == null ? this.linkUrl() : link,
-        this.defaultSeverity(),
-        this.message())
-        .build();
+  protected String link(AnnotationMirror annotation) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+        annotation.getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals("value")) {
+        Object value = entry.getValue().getValue();
+        if (value instanceof String && !((String) value).isEmpty()) {
+          return (String) value;
+        }
+      }
+    }
+    return super.link(annotation);
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.BugPattern.SeverityLevel;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.LineMap;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.util.Context;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes each reported use to a JSON Lines file as it is found, for
+ * {@code -XepOpt:GrpcApiChecker:FindingsFile}, so that tools need not parse javac's output.
+ *
+ * <p>Each compilation collects lines in a buffer of fixed size and appends it to the file when
+ * it is full and when the compilation finishes. An append holds an exclusive lock on the file,
+ * so that compilations running in parallel, in this JVM or in others, never interleave their
+ * lines. The file is never truncated; builds delete it before compiling.
+ */
+final class FindingsWriter {
+
+  private static final Context.Key<FindingsWriter> KEY = new Context.Key<>();
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // A JVM may hold only one lock on a file, so compilations of this JVM take turns by file, each
+  // file given by its real path so that all spellings of it share a turn.
+  private static final ConcurrentMap<Path, Object> appending = new ConcurrentHashMap<>();
+
+  private final Path file;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * Returns the writer of the compilation, or null if no findings file is configured. What is
+   * left in its buffer is written when the compilation finishes.
+   */
+  static FindingsWriter instance(Context context, CheckerOptions options) {
+    if (options.findingsFile == null) {
+      return null;
+    }
+    FindingsWriter writer = context.get(KEY);
+    if (writer == null) {
+      try {
+        writer = new FindingsWriter(realPath(options.findingsFile));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write findings to " + options.findingsFile, e);
+      }
+      context.put(KEY, writer);
+      FindingsWriter flushed = writer;
+      MultiTaskListener.instance(context).add(new TaskListener() {
+        @Override
+        public void finished(TaskEvent event) {
+          if (event.getKind() == TaskEvent.Kind.COMPILATION) {
+            flushed.flush();
+          }
+        }
+      });
+    }
+    return writer;
+  }
+
+  private FindingsWriter(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Returns the path of a file that may not exist yet, with its directory resolved to its real
+   * path, creating the directory if it is missing. Paths such as {@code build/../findings.jsonl}
+   * and {@code findings.jsonl}, or ones through symbolic links, give the same result.
+   */
+  static Path realPath(Path file) throws IOException {
+    Path absolute = file.toAbsolutePath();
+    Path parent = absolute.getParent();
+    if (parent == null) {
+      return absolute;
+    }
+    Files.createDirectories(parent);
+    return parent.toRealPath().resolve(absolute.getFileName());
+  }
+
+  /**
+   * Writes a finding: a use of an API at a tree, or the first of several uses if {@code uses}
+   * is greater than one.
+   */
+  synchronized void write(String checkName, SeverityLevel severity, String link, String message,
+      String annotation, String api, int uses, CompilationUnitTree unit, Tree tree) {
+    LineMap lines = unit.getLineMap();
+    long position = ASTHelpers.getStartPosition(tree);
+    StringBuilder json = new StringBuilder(256)
+        .append("{\"rule\": ").append(quote(checkName))
+        .append(", \"severity\": ").append(quote(severity.name()))
+        .append(", \"api\": ").append(quote(api))
+        .append(", \"annotation\": ").append(quote(annotation))
+        .append(", \"link\": ").append(quote(link))
+        .append(", \"file\": ").append(quote(Baseline.fileName(unit.getSourceFile())))
+        .append(", \"line\": ").append(lines == null ? 0 : lines.getLineNumber(position))
+        .append(", \"column\": ").append(lines == null ? 0 : lines.getColumnNumber(position))
+        .append(", \"uses\": ").append(uses)
+        .append(", \"message\": ").append(quote(message))
+        .append("}\n");
+    byte[] line = json.toString().getBytes(StandardCharsets.UTF_8);
+    if (line.length > buffer.remaining()) {
+      flush();
+    }
+    if (line.length > buffer.capacity()) {
+      append(ByteBuffer.wrap(line));
+    } else {
+      buffer.put(line);
+    }
+  }
+
+  synchronized void flush() {
+    if (buffer.position() > 0) {
+      buffer.flip();
+      append(buffer);
+      buffer.clear();
+    }
+  }
+
+  private void append(ByteBuffer lines) {
+    synchronized (appending.computeIfAbsent(file, f -> new Object())) {
+      try {
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+          FileLock lock = channel.lock();
+          try {
+            while (lines.hasRemaining()) {
+              channel.write(lines);
+            }
+          } finally {
+            lock.release();
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write findings to " + file, e);
+      }
+    }
+  }
+
+  /** Returns a value as a JSON string, or null. */
+  static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          quoted.append('\\').append(c);
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A directory of {@link ApiIndex} files, one for each jar on the classpath, shared by compilations
+ * and processes. Each file is named after a hash of the jar's content and of the indexing options,
+ * so a changed jar gets a new file and the files of the other jars stay valid.
+ *
+ * <p>Files are written to a temporary name and then moved into place, so a reader never sees a
+ * partly written index, and concurrent writers of the same jar produce identical files.
+ */
+final class IndexCache {
+
+  private static final int MAX_JAR_HASHES = 4096;
+
+  // Hashes of jars recently seen by this process, keyed by path, size and modification time, so
+  // that builds compiling many modules in one process hash each jar once. A jar rewritten in place
+  // with the same size and modification time keeps its index until it drops out of this map.
+  private static final JarHashes jarHashes = new JarHashes();
+
+  private final Path directory;
+  private final List<String> annotationTypes;
+  private final List<String> packageNames;
+  private final PackagePrefixes packages;
+
+  IndexCache(
+      Path directory,
+      List<String> annotationTypes,
+      List<String> packageNames,
+      PackagePrefixes packages) {
+    this.directory = directory;
+    this.annotationTypes = annotationTypes;
+    this.packageNames = packageNames;
+    this.packages = packages;
+  }
+
+  /**
+   * Returns the indexes of the jars on the classpath that contain classes in the checked
+   * packages, building and storing the ones that are missing.
+   */
+  List<ApiIndex> load(Iterable<? extends File> classpath) throws IOException {
+    List<ApiIndex> indexes = new ArrayList<>();
+    for (File file : classpath) {
+      if (file.isFile() && file.getName().endsWith(".jar")) {
+        ApiIndex index = load(file.toPath());
+        if (index.size() > 0) {
+          indexes.add(index);
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /** Returns the index of a jar, building and storing it if needed. */
+  ApiIndex load(Path jar) throws IOException {
+    Path file = directory.resolve(key(jar) + ".idx");
+    if (Files.isRegularFile(file)) {
+      try {
+        return ApiIndex.open(file);
+      } catch (IOException e) {
+        // Not a readable index, for example one written by another version; replace it.
+      }
+    }
+    ApiIndex.Builder builder =
+        new ApiIndex.Builder(annotationTypes).addClasses(ClassFiles.read(jar, packages));
+    try {
+      store(builder, file);
+    } catch (IOException e) {
+      // The cache is only an optimization, so a directory that cannot be written to is not fatal.
+      return builder.build();
+    }
+    return ApiIndex.open(file);
+  }
+
+  private void store(ApiIndex.Builder builder, Path file) throws IOException {
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temporary)) {
+        builder.writeTo(out);
+      }
+      try {
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /** Returns the name of the jar's index, a hash of its content and of the indexing options. */
+  private String key(Path jar) throws IOException {
+    MessageDigest digest = sha256();
+    digest.update(contentHash(jar).getBytes(StandardCharsets.UTF_8));
+    String options = ApiIndex.VERSION + "\n" + annotationTypes + "\n" + packageNames;
+    digest.update(options.getBytes(StandardCharsets.UTF_8));
+    return hex(digest.digest());
+  }
+
+  /** Returns the SHA-256 of a jar's content, hashing it once per path, size and time. */
+  static String contentHash(Path jar) throws IOException {
+    String stamp = jar.toAbsolutePath() + ":" + Files.size(jar) + ":"
+        + Files.getLastModifiedTime(jar).toMillis();
+    String hash;
+    synchronized (jarHashes) {
+      hash = jarHashes.get(stamp);
+    }
+    if (hash == null) {
+      hash = hashContent(jar);
+      synchronized (jarHashes) {
+        jarHashes.put(stamp, hash);
+      }
+    }
+    return hash;
+  }
+
+  /** Returns the SHA-256 of a file's content, reading the whole file. */
+  static String hashContent(Path file) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[65536];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("SHA-256 is required to be supported", e);
+    }
+  }
+
+  static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private static final class JarHashes extends LinkedHashMap<String, String> {
+    JarHashes() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_JAR_HASHES;
+    }
+  }
+}
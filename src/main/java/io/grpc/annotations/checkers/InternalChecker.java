@@ -20,10 +20,8 @@ import com.google.auto.service.AutoService;
 import com.google.errorprone.BugPattern;
 import com.google.errorprone.BugPattern.LinkType;
 import com.google.errorprone.BugPattern.SeverityLevel;
+import com.google.errorprone.ErrorProneFlags;
 import com.google.errorprone.bugpatterns.BugChecker;
-import com.google.errorprone.matchers.Description;
-import com.sun.source.tree.Tree;
-import javax.lang.model.element.AnnotationMirror;
 
 @AutoService(BugChecker.class)
 @BugPattern(
@@ -37,11 +35,14 @@ import javax.lang.model.element.AnnotationMirror;
 public final class InternalChecker extends AnnotationChecker {
 
   public InternalChecker() {
-    super("io.grpc.Internal", true);
+    this(ErrorProneFlags.empty());
   }
 
-  @Override
-  protected Description describe(Tree tree, AnnotationMirror annotation) {
-    return describeMatch(tree);
+  public InternalChecker(ErrorProneFlags flags) {
+    this(CheckerOptions.fromFlags(flags));
+  }
+
+  private InternalChecker(CheckerOptions options) {
+    super(options.internalAnnotations, true, options);
   }
 }
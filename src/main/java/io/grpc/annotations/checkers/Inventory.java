@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.code.Kinds.Kind;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.util.Context;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The APIs of the checked packages that a compilation uses, annotated or not, with the number of
+ * uses, for {@code -XepOpt:GrpcApiChecker:Inventory}. The inventory is created when the checkers
+ * see the first compilation unit and the file is replaced when the compilation finishes, even if
+ * it uses no API, and {@link InventoryTool} merges the files of several compilations into one.
+ *
+ * <p>Only the files of the compilation are counted, so the inventory of a module is complete
+ * only after a full compilation; an incremental compilation that recompiles some of its files
+ * replaces it with the uses of those files alone.
+ *
+ * <p>Each API is listed on a line of its own, with its number of uses, the number of inventories
+ * it was found in, and the checked annotation types that apply to it:
+ *
+ * <pre>
+ * # grpc-java-api-checker inventory
+ * io.grpc.ManagedChannelBuilder	12	1	-
+ * io.grpc.ManagedChannelBuilder#maxInboundMessageSize	2	1	io.grpc.ExperimentalApi
+ * </pre>
+ *
+ * <p>Every segment of a qualified name is a use, so {@code io.grpc.Status.OK} uses both
+ * {@code io.grpc.Status} and {@code io.grpc.Status#OK}. Trees that the checkers skip, such as
+ * those of unrelated files and generated classes, are not counted.
+ */
+final class Inventory {
+
+  private static final Context.Key<Inventory> KEY = new Context.Key<>();
+
+  static final String HEADER = "# grpc-java-api-checker inventory";
+
+  private static final String NO_ANNOTATIONS = "-";
+
+  private final Path file;
+
+  // The APIs used so far, by name.
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  // All checkers match the same trees one after the other; the first one counts them.
+  private Tree lastTree;
+
+  /**
+   * Returns the inventory of the compilation, or null if no inventory file is configured. The
+   * file is written when the compilation finishes, whether or not anything was added.
+   */
+  static Inventory instance(Context context, CheckerOptions options) {
+    if (options.inventory == null) {
+      return null;
+    }
+    Inventory inventory = context.get(KEY);
+    if (inventory == null) {
+      inventory = new Inventory(options.inventory);
+      context.put(KEY, inventory);
+      Inventory written = inventory;
+      MultiTaskListener.instance(context).add(new TaskListener() {
+        @Override
+        public void finished(TaskEvent event) {
+          if (event.getKind() == TaskEvent.Kind.COMPILATION) {
+            written.write();
+          }
+        }
+      });
+    }
+    return inventory;
+  }
+
+  private Inventory(Path file) {
+    this.file = file;
+  }
+
+  /** Counts the APIs of the checked packages that a name, and each of its qualifiers, uses. */
+  synchronized void add(Tree tree, VerdictCache.Slot slot) {
+    if (tree == lastTree) {
+      return;
+    }
+    lastTree = tree;
+    for (Tree segment = tree; segment != null; segment = AnnotationChecker.qualifier(segment)) {
+      Symbol symbol = ASTHelpers.getSymbol(segment);
+      if (symbol == null || symbol.kind == Kind.PCK || !slot.isInCheckedPackage(symbol)) {
+        continue;
+      }
+      String api = Baseline.apiName(symbol);
+      Entry entry = entries.get(api);
+      if (entry == null) {
+        Set<String> annotations = slot.annotationTypes(symbol);
+        entry = new Entry(annotations.isEmpty() ? NO_ANNOTATIONS : String.join(",", annotations));
+        entry.inventories = 1;
+        entries.put(api, entry);
+      }
+      entry.uses++;
+    }
+  }
+
+  private synchronized void write() {
+    try {
+      write(file, new TreeMap<>(entries));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not write inventory " + file, e);
+    }
+  }
+
+  /** Reads an inventory file and adds its entries to those already merged. */
+  static void merge(Path file, Map<String, Entry> merged) throws IOException {
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      int lineNumber = 0;
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        lineNumber++;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\t", -1);
+        long uses = -1;
+        int inventories = -1;
+        if (fields.length == 4) {
+          try {
+            uses = Long.parseLong(fields[1]);
+            inventories = Integer.parseInt(fields[2]);
+          } catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if (uses < 0 || inventories < 0) {
+          throw new IOException(file + ":" + lineNumber + ": malformed inventory entry: " + line);
+        }
+        Entry entry = merged.get(fields[0]);
+        if (entry == null) {
+          merged.put(fields[0], entry = new Entry(fields[3]));
+        } else if (!entry.annotations.equals(fields[3])) {
+          // inventories of modules that use different versions of the API
+          Set<String> annotations = new TreeSet<>();
+          for (String types : Arrays.asList(entry.annotations, fields[3])) {
+            if (!types.equals(NO_ANNOTATIONS)) {
+              annotations.addAll(Arrays.asList(types.split(",")));
+            }
+          }
+          entry.annotations =
+              annotations.isEmpty() ? NO_ANNOTATIONS : String.join(",", annotations);
+        }
+        entry.uses += uses;
+        entry.inventories += inventories;
+      }
+    }
+  }
+
+  /** Writes entries, sorted by API, to an inventory file, replacing it atomically. */
+  static void write(Path file, TreeMap<String, Entry> entries) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        out.write(HEADER);
+        out.write('\n');
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          out.write(entry.getKey());
+          out.write('\t');
+          out.write(Long.toString(entry.getValue().uses));
+          out.write('\t');
+          out.write(Integer.toString(entry.getValue().inventories));
+          out.write('\t');
+          out.write(entry.getValue().annotations);
+          out.write('\n');
+        }
+      }
+      try {
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /** The uses of one API. */
+  static final class Entry {
+    long uses;
+    int inventories;
+
+    // The names of the annotation types that apply, separated by commas, or "-".
+    String annotations;
+
+    Entry(String annotations) {
+      this.annotations = annotations;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Merges the {@link Inventory} files of several compilations, such as those of all modules of a
+ * repository, into one. The uses and inventory counts of each API are added up, so merged files
+ * can be merged again.
+ *
+ * <pre>
+ * java -cp grpc-java-api-checker.jar io.grpc.annotations.checkers.InventoryTool \
+ *     --output grpc-inventory.tsv module-a/grpc-inventory.tsv module-b/grpc-inventory.tsv ...
+ * </pre>
+ */
+public final class InventoryTool {
+
+  private InventoryTool() {}
+
+  public static void main(String[] args) throws IOException {
+    Path output = null;
+    List<Path> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--output")) {
+        if (++i >= args.length) {
+          throw new IllegalArgumentException("Missing value for --output");
+        }
+        output = Paths.get(args[i]);
+      } else {
+        inputs.add(Paths.get(args[i]));
+      }
+    }
+    if (output == null || inputs.isEmpty()) {
+      System.err.println("Usage: InventoryTool --output <file> <inventory>...");
+      System.exit(2);
+      return;
+    }
+    Inventory.write(output, merge(inputs));
+  }
+
+  /** Reads the inventories and adds up their entries. */
+  static TreeMap<String, Inventory.Entry> merge(List<Path> inputs) throws IOException {
+    TreeMap<String, Inventory.Entry> merged = new TreeMap<>();
+    for (Path input : inputs) {
+      Inventory.merge(input, merged);
+    }
+    return merged;
+  }
+}
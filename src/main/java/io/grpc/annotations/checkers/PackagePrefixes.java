@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie of package name prefixes. A package matches if one of the prefixes equals its name or
+ * names one of its enclosing packages, so {@code io.grpc} matches {@code io.grpc.internal} but
+ * not {@code io.grpcx}. An empty prefix matches every package.
+ */
+final class PackagePrefixes {
+
+  private final Node root = new Node();
+
+  PackagePrefixes(Iterable<String> prefixes) {
+    for (String prefix : prefixes) {
+      add(prefix.trim());
+    }
+  }
+
+  private void add(String prefix) {
+    Node node = root;
+    if (!prefix.isEmpty()) {
+      for (String segment : prefix.split("\\.", -1)) {
+        node = node.children.computeIfAbsent(segment, s -> new Node());
+      }
+    }
+    node.terminal = true;
+  }
+
+  /** Returns true if the package, given by its fully qualified name, matches a prefix. */
+  boolean matches(CharSequence packageName) {
+    Node node = root;
+    int start = 0;
+    int length = packageName.length();
+    while (!node.terminal) {
+      if (start > length) {
+        return false;
+      }
+      int end = start;
+      while (end < length && packageName.charAt(end) != '.') {
+        end++;
+      }
+      node = node.children.get(packageName.subSequence(start, end).toString());
+      if (node == null) {
+        return false;
+      }
+      start = end + 1;
+    }
+    return true;
+  }
+
+  private static final class Node {
+    final Map<String, Node> children = new HashMap<>();
+    boolean terminal;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Verdicts about classes loaded from jars, kept for all compilations of a JVM, such as a Bazel
+ * persistent worker or the Gradle compiler daemon, so that a warm worker does not look at the
+ * annotations of the same gRPC classes again.
+ *
+ * <p>Classes are keyed by the content hash of their jar and their entry in it, and likewise by
+ * their package's package-info, which may come from another jar, so a rebuilt jar gets new
+ * entries. A verdict is kept as the names of the annotation types that apply and their
+ * {@code value} elements; javac symbols belong to one compilation and are never retained. The
+ * classes are spread over stripes, each a small LRU map with a lock of its own, so that
+ * parallel compilations rarely wait for each other.
+ */
+final class SharedVerdicts {
+
+  private static final int STRIPES = 16;
+
+  // One instance for each set of annotation types and size, as verdicts depend on the types.
+  private static final ConcurrentMap<String, SharedVerdicts> instances = new ConcurrentHashMap<>();
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  /** Returns the verdicts of compilations that check the given annotation types. */
+  static SharedVerdicts forAnnotationTypes(Collection<String> annotationTypes, int maxClasses) {
+    return instances.computeIfAbsent(new TreeSet<>(annotationTypes) + "/" + maxClasses,
+        key -> new SharedVerdicts(maxClasses));
+  }
+
+  SharedVerdicts(int maxClasses) {
+    int perStripe = Math.max(1, (maxClasses + STRIPES - 1) / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(perStripe);
+    }
+  }
+
+  /** Returns the verdicts for a class, given as the hashes and entries of its class files. */
+  ClassVerdicts forClass(String classKey) {
+    Stripe stripe = stripes[(classKey.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    synchronized (stripe) {
+      ClassVerdicts verdicts = stripe.get(classKey);
+      if (verdicts == null) {
+        verdicts = new ClassVerdicts();
+        stripe.put(classKey, verdicts);
+      }
+      return verdicts;
+    }
+  }
+
+  /** Returns the number of classes kept. */
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * The verdicts for a class and its members, keyed by the empty string for the class and by
+   * name and descriptor for members. Each verdict maps the applicable annotation types to their
+   * value elements, which may be null.
+   */
+  static final class ClassVerdicts {
+    private final ConcurrentMap<String, Map<String, String>> verdicts = new ConcurrentHashMap<>();
+
+    /** Returns the verdict for the class or one of its members, or null if it is not known. */
+    Map<String, String> get(String elementKey) {
+      return verdicts.get(elementKey);
+    }
+
+    void put(String elementKey, Map<String, String> verdict) {
+      verdicts.put(elementKey, verdict);
+    }
+  }
+
+  private static final class Stripe extends LinkedHashMap<String, ClassVerdicts> {
+    private final int maxSize;
+
+    Stripe(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ClassVerdicts> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
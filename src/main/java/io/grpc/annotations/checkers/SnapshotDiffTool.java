@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.annotations.checkers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Lists the APIs whose annotations differ between two {@link ApiSnapshots snapshots}, such as
+ * those of two grpc-java releases, optionally only the ones an {@link Inventory} lists.
+ *
+ * <pre>
+ * java -cp grpc-java-api-checker.jar io.grpc.annotations.checkers.SnapshotDiffTool \
+ *     [--inventory grpc-inventory.tsv] snapshots/1.59.0.idx snapshots/1.60.0.idx
+ * </pre>
+ *
+ * <p>Each line holds an API, named like in an inventory, and the annotation types that apply to
+ * it in the old and in the new snapshot, {@code -} if none does and {@code absent} if the
+ * snapshot has no such class or member:
+ *
+ * <pre>
+ * io.grpc.ManagedChannelBuilder#maxInboundMessageSize	io.grpc.ExperimentalApi	-
+ * </pre>
+ */
+public final class SnapshotDiffTool {
+
+  private static final String ABSENT = "absent";
+
+  private SnapshotDiffTool() {}
+
+  public static void main(String[] args) throws IOException {
+    Path inventory = null;
+    List<Path> snapshots = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--inventory")) {
+        if (++i >= args.length) {
+          throw new IllegalArgumentException("Missing value for --inventory");
+        }
+        inventory = Paths.get(args[i]);
+      } else {
+        snapshots.add(Paths.get(args[i]));
+      }
+    }
+    if (snapshots.size() != 2) {
+      System.err.println("Usage: SnapshotDiffTool [--inventory <file>] <old> <new>");
+      System.exit(2);
+      return;
+    }
+    Set<String> apis = null;
+    if (inventory != null) {
+      Map<String, Inventory.Entry> entries = new HashMap<>();
+      Inventory.merge(inventory, entries);
+      apis = entries.keySet();
+    }
+    for (String line :
+        diff(ApiIndex.open(snapshots.get(0)), ApiIndex.open(snapshots.get(1)), apis)) {
+      System.out.println(line);
+    }
+  }
+
+  /**
+   * Returns the APIs whose annotations differ, each with its old and new annotations separated by
+   * tabs, sorted. If {@code apis} is not null, only the APIs in it are compared.
+   */
+  static List<String> diff(ApiIndex oldSnapshot, ApiIndex newSnapshot, Set<String> apis) {
+    Set<String> keys = new TreeSet<>();
+    for (ApiIndex snapshot : new ApiIndex[] {oldSnapshot, newSnapshot}) {
+      for (ApiIndex.Entry entry : snapshot.entries()) {
+        keys.add(entry.key);
+      }
+    }
+    // overloads share an API name, so their lines may repeat
+    Set<String> lines = new TreeSet<>();
+    for (String key : keys) {
+      String api = apiName(key);
+      if (apis != null && !apis.contains(api)) {
+        continue;
+      }
+      String before = annotations(oldSnapshot, key);
+      String after = annotations(newSnapshot, key);
+      if (!before.equals(after)) {
+        lines.add(api + '\t' + before + '\t' + after);
+      }
+    }
+    return new ArrayList<>(lines);
+  }
+
+  /**
+   * Returns the annotation types that apply to a package, class or member in a snapshot. In a
+   * snapshot that does not {@link ApiIndex#hasAllMembers have all members}, such as an index
+   * written with {@code --output}, a member without an entry of its own has the annotations of
+   * its class.
+   */
+  private static String annotations(ApiIndex snapshot, String key) {
+    ApiIndex.Entry entry = snapshot.find(key);
+    int dot = key.indexOf('.');
+    if (entry == null && dot >= 0 && !snapshot.hasAllMembers()) {
+      entry = snapshot.find(key.substring(0, dot));
+    }
+    if (entry == null) {
+      return ABSENT;
+    }
+    Set<String> names = new TreeSet<>();
+    List<String> types = snapshot.annotationTypes();
+    for (int bit = 0; bit < types.size(); bit++) {
+      if (entry.has(bit)) {
+        names.add(types.get(bit));
+      }
+    }
+    return names.isEmpty() ? "-" : String.join(",", names);
+  }
+
+  /** Returns the API name of an index key, as {@link Baseline#apiName} gives it for symbols. */
+  static String apiName(String key) {
+    if (key.endsWith("/")) {
+      return key.substring(0, key.length() - 1).replace('/', '.');
+    }
+    int dot = key.indexOf('.');
+    if (dot < 0) {
+      return key.replace('/', '.');
+    }
+    return key.substring(0, dot).replace('/', '.')
+        + '#' + key.substring(dot + 1, key.indexOf(':', dot));
+  }
+}
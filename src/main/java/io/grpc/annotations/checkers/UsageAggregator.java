@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.VisitorState;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Enter;
+import com.sun.tools.javac.comp.Env;
+import com.sun.tools.javac.util.Context;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.lang.model.element.AnnotationMirror;
+
+/**
+ * Counts the uses of each annotated API instead of reporting every one, for
+ * {@code -XepOpt:GrpcApiChecker:Report=PER_FILE} and {@code PER_COMPILATION}. One diagnostic is
+ * reported per check and API, at its first use, with the number of uses.
+ *
+ * <p>Per-file diagnostics are reported when the checkers move on to the next compilation unit,
+ * and the rest once the checkers have scanned the last compilation unit, so that javac counts
+ * them among the errors and warnings of the compilation. In a compilation whose first unit to be
+ * scanned is also its last, such as one of a single file, that moment passes before the
+ * aggregator exists, and the rest is reported when the compilation finishes, after javac's
+ * count. Each is reported through the {@link VisitorState} of its first use, so it is
+ * attributed to that use's source file.
+ */
+final class UsageAggregator {
+
+  private static final Context.Key<UsageAggregator> KEY = new Context.Key<>();
+
+  private final boolean perFile;
+
+  // Uses not yet reported, by check name and API, in the order of their first use.
+  private final Map<String, Uses> pending = new LinkedHashMap<>();
+
+  private CompilationUnitTree currentUnit;
+
+  // The compilation units with classes that the checkers have not yet scanned.
+  private final Set<CompilationUnitTree> unscanned =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /**
+   * Returns the aggregator of the compilation, or null if every use is reported on its own.
+   */
+  static UsageAggregator instance(Context context, CheckerOptions options) {
+    if (options.report == CheckerOptions.Report.EACH_USE) {
+      return null;
+    }
+    UsageAggregator aggregator = context.get(KEY);
+    if (aggregator == null) {
+      aggregator = new UsageAggregator(options.report == CheckerOptions.Report.PER_FILE);
+      context.put(KEY, aggregator);
+      for (Env<AttrContext> env : Enter.instance(context).getEnvs()) {
+        aggregator.unscanned.add(env.toplevel);
+      }
+      UsageAggregator reported = aggregator;
+      MultiTaskListener.instance(context).add(new TaskListener() {
+        @Override
+        public void finished(TaskEvent event) {
+          switch (event.getKind()) {
+            case ANALYZE:
+              // Error Prone scans a unit when its last class has been analyzed, before this
+              // listener hears of it.
+              if (reported.scannedAll(event.getCompilationUnit())) {
+                reported.report();
+              }
+              break;
+            case COMPILATION:
+              // in case the last unit was not scanned
+              reported.report();
+              break;
+            default:
+              break;
+          }
+        }
+      });
+    }
+    return aggregator;
+  }
+
+  private UsageAggregator(boolean perFile) {
+    this.perFile = perFile;
+  }
+
+  /** Called before the trees of a compilation unit are matched. */
+  synchronized void enterCompilationUnit(CompilationUnitTree unit) {
+    if (unit != currentUnit) {
+      currentUnit = unit;
+      unscanned.remove(unit);
+      if (perFile) {
+        report();
+      }
+    }
+  }
+
+  /** Returns true if the unit was the last to be scanned. */
+  private synchronized boolean scannedAll(CompilationUnitTree unit) {
+    return unscanned.isEmpty() && unit == currentUnit;
+  }
+
+  /** Counts a use of an API that carries the annotation. */
+  synchronized void add(AnnotationChecker checker, String checkName, Symbol api, Tree tree,
+      AnnotationMirror annotation, VisitorState state) {
+    String apiName = Baseline.apiName(api);
+    Uses uses = pending.computeIfAbsent(checkName + '\t' + apiName,
+        key -> new Uses(checker, apiName, tree, annotation, state));
+    uses.count++;
+    if (uses.lastUnit != currentUnit) {
+      uses.lastUnit = currentUnit;
+      uses.files++;
+    }
+  }
+
+  private void report() {
+    List<Uses> reported;
+    synchronized (this) {
+      reported = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    for (Uses uses : reported) {
+      String count = uses.count == 1 ? "1 use" : uses.count + " uses";
+      String where = perFile ? "in this file"
+          : uses.files == 1 ? "in 1 file" : "in " + uses.files + " files";
+      uses.state.reportMatch(uses.checker.describeUses(uses.tree, uses.apiName, uses.count,
+          uses.annotation, uses.state, uses.apiName + ": " + count + " " + where));
+    }
+  }
+
+  /** The uses of one API under one check. */
+  private static final class Uses {
+    final AnnotationChecker checker;
+    final String apiName;
+
+    // The first use, which the diagnostic points to.
+    final Tree tree;
+    final AnnotationMirror annotation;
+    final VisitorState state;
+
+    int count;
+    int files;
+    CompilationUnitTree lastUnit;
+
+    Uses(AnnotationChecker checker, String apiName, Tree tree, AnnotationMirror annotation,
+        VisitorState state) {
+      this.checker = checker;
+      this.apiName = apiName;
+      this.tree = tree;
+      this.annotation = annotation;
+      this.state = state;
+    }
+  }
+}
@@ -0,0 +1,975 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import com.google.errorprone.VisitorState;
+import com.google.errorprone.util.ASTHelpers;
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.Tree;
+import com.sun.tools.javac.code.Attribute;
+import com.sun.tools.javac.code.Kinds.Kind;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symbol.ClassSymbol;
+import com.sun.tools.javac.code.Symbol.CompletionFailure;
+import com.sun.tools.javac.code.Symbol.MethodSymbol;
+import com.sun.tools.javac.code.Symbol.PackageSymbol;
+import com.sun.tools.javac.code.Symbol.TypeSymbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Names;
+import com.sun.tools.javac.util.Pair;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Memoizes the checked annotations found on a symbol or on any of its owners. One instance is
+ * shared by all checkers of a compilation, so each symbol's owner chain is walked once no matter
+ * how many annotations are being checked. Symbols are compared by identity, so an instance must
+ * not outlive the compilation that created the symbols.
+ */
+final class VerdictCache {
+
+  private static final Context.Key<VerdictCache> KEY = new Context.Key<>();
+
+  /** The maximum number of slots, and of annotation types in an index. */
+  static final int MAX_ANNOTATIONS = Long.SIZE;
+
+  private final Map<Symbol, Verdict> verdicts = new IdentityHashMap<>();
+  // For each method, the slots whose annotation applies to the method and all methods it overrides.
+  private final Map<MethodSymbol, Long> hierarchyMasks = new IdentityHashMap<>();
+  private final Map<String, Slot> slotsByKey = new HashMap<>();
+  private int slotCount;
+  // Whether any checked annotation type may be found, decided when the first slot is registered.
+  private Boolean mayFindAnnotationTypes;
+  // The slots each annotation type is reported in, as a mask, by type and by name.
+  private final Map<TypeSymbol, Long> masksByType = new IdentityHashMap<>();
+  private final Map<String, Long> masksByName = new HashMap<>();
+  private final Map<String, TypeSymbol> typesByName = new HashMap<>();
+
+  // Whether a package may contain annotated APIs, as decided by the configured prefixes.
+  private final Map<PackageSymbol, Boolean> checkedPackages = new IdentityHashMap<>();
+  private final PackagePrefixes packages;
+
+  // Answer lookups for symbols from class files without reading their annotations, if configured.
+  // Loaded on first use, so compilations that never look at such symbols do not pay for it.
+  private final CheckerOptions options;
+  private final JavaFileManager fileManager;
+  private List<ApiIndex> indexes;
+  // The annotations created from index entries, by type name and value element.
+  private final Map<String, Map<String, Attribute.Compound>> indexedAnnotations = new HashMap<>();
+  // Whether an index has the annotations of a package that javac finds for it.
+  private final Map<Pair<ApiIndex, PackageSymbol>, Boolean> indexedPackages = new HashMap<>();
+  private final Types types;
+  private final Symtab symtab;
+  private final Names names;
+
+  // APIs whose uses are not reported whatever their annotations, or null if none are, and the
+  // verdicts to report uses of each symbol with once the allowed APIs are taken out.
+  private final ApiPatterns allowed;
+  private final Map<Symbol, Verdict> reportedVerdicts = new IdentityHashMap<>();
+
+  // Verdicts about classes from jars kept across compilations, looked up once the annotation
+  // types are known, and the content hash of each jar they were looked up for.
+  private SharedVerdicts shared;
+  private final Map<String, String> jarHashes = new HashMap<>();
+
+  // The snapshot among the indexes and its release, and whether each jar, given by the URI
+  // prefix of its entries, is of that release.
+  private ApiIndex snapshot;
+  private String snapshotVersion;
+  private final Map<String, Boolean> snapshotJars = new HashMap<>();
+
+  // The compilation unit being scanned, and whether it was found to be unrelated to the checked
+  // packages. Error Prone matches a unit before any of its trees.
+  private CompilationUnitTree currentUnit;
+  private boolean currentUnitSkipped;
+  // The top-level class being scanned, and whether it is generated code that is not checked.
+  private ClassTree currentClass;
+  private boolean currentClassSkipped;
+
+  // Null unless a stats file is configured.
+  private final CheckerStats stats;
+
+  /**
+   * Returns the cache of the compilation that the state belongs to, creating it with the given
+   * options if needed.
+   */
+  static VerdictCache instance(VisitorState state, CheckerOptions options) {
+    VerdictCache cache = state.context.get(KEY);
+    if (cache == null) {
+      cache = new VerdictCache(options, state);
+      state.context.put(KEY, cache);
+    }
+    return cache;
+  }
+
+  private VerdictCache(CheckerOptions options, VisitorState state) {
+    this.packages = options.packages;
+    this.types = state.getTypes();
+    this.symtab = state.getSymtab();
+    this.names = state.getNames();
+    this.options = options;
+    this.fileManager = state.context.get(JavaFileManager.class);
+    this.stats = CheckerStats.instance(state.context, options);
+    // created along with the cache, at the first compilation unit, so that a compilation that
+    // uses no checked API still replaces the inventory of the last one
+    Inventory.instance(state.context, options);
+    this.allowed = options.allowedApis.isEmpty() ? null : new ApiPatterns(options.allowedApis);
+  }
+
+  private List<ApiIndex> indexes() {
+    if (indexes == null) {
+      indexes = new ArrayList<>();
+      if (options.index != null) {
+        try {
+          indexes.add(ApiIndex.open(options.index));
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not read API index " + options.index, e);
+        }
+      }
+      if (options.snapshots != null && fileManager instanceof StandardJavaFileManager) {
+        String version = ApiSnapshots.version(
+            ((StandardJavaFileManager) fileManager).getLocation(StandardLocation.CLASS_PATH),
+            options.annotationTypeNames());
+        Path snapshot = version == null ? null : ApiSnapshots.file(options.snapshots, version);
+        if (snapshot != null && Files.isRegularFile(snapshot)) {
+          try {
+            this.snapshot = ApiIndex.open(snapshot);
+            this.snapshotVersion = version;
+            indexes.add(this.snapshot);
+          } catch (IOException e) {
+            throw new UncheckedIOException("Could not read API snapshot " + snapshot, e);
+          }
+        }
+      }
+      if (options.cacheDir != null && fileManager instanceof StandardJavaFileManager) {
+        IndexCache cache = new IndexCache(options.cacheDir, options.annotationTypeNames(),
+            options.packageNames, options.packages);
+        try {
+          indexes.addAll(cache.load(
+              ((StandardJavaFileManager) fileManager).getLocation(StandardLocation.CLASS_PATH)));
+        } catch (IOException e) {
+          throw new UncheckedIOException("Could not index the classpath in " + options.cacheDir, e);
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Resolves the annotation types and returns the slot the named checker finds them in. All
+   * types of a checker share its slot, so the closest of them to a symbol wins. Registering the
+   * same checker again returns the same slot.
+   */
+  Slot register(List<String> annotationTypes, String checkerName, VisitorState state) {
+    String key = checkerName + "=" + annotationTypes;
+    Slot slot = slotsByKey.get(key);
+    if (slot == null) {
+      slot = newSlot(annotationTypes, state);
+      slotsByKey.put(key, slot);
+    }
+    return stats == null ? slot : new Slot(this, slot.index, stats.forChecker(checkerName));
+  }
+
+  private Slot newSlot(List<String> annotationTypes, VisitorState state) {
+    if (mayFindAnnotationTypes == null) {
+      mayFindAnnotationTypes = ClasspathProbe.mayFind(
+          options.annotationTypeNames(), symtab, names, fileManager, stats);
+    }
+    if (!mayFindAnnotationTypes) {
+      return new Slot(this, -1, null);
+    }
+    Map<String, TypeSymbol> resolved = new HashMap<>();
+    for (String name : annotationTypes) {
+      Symbol symbol = state.getSymbolFromString(name);
+      if (symbol != null) {
+        resolved.put(name, symbol.type.tsym);
+      }
+    }
+    if (resolved.isEmpty()) {
+      return new Slot(this, -1, null);
+    }
+    if (slotCount == MAX_ANNOTATIONS) {
+      throw new IllegalStateException("Too many checked annotation groups: " + slotCount);
+    }
+    int index = slotCount++;
+    for (Map.Entry<String, TypeSymbol> type : resolved.entrySet()) {
+      masksByType.merge(type.getValue(), 1L << index, (a, b) -> a | b);
+      masksByName.merge(type.getKey(), 1L << index, (a, b) -> a | b);
+      typesByName.put(type.getKey(), type.getValue());
+    }
+    // Earlier verdicts did not look for the new annotations.
+    verdicts.clear();
+    hierarchyMasks.clear();
+    reportedVerdicts.clear();
+    indexedPackages.clear();
+    shared = null;
+    return new Slot(this, index, null);
+  }
+
+  /** Decides whether the trees of the compilation unit about to be scanned can be skipped. */
+  private void enterCompilationUnit(CompilationUnitTree unit, VisitorState state) {
+    if (unit == currentUnit) {
+      return;
+    }
+    currentUnit = unit;
+    currentClassSkipped = false;
+    currentUnitSkipped = isInGeneratedSourceDir(unit)
+        || (options.skipUnrelatedFiles && !mayReferenceCheckedPackages(unit, state));
+    if (stats != null) {
+      stats.recordCompilationUnit(currentUnitSkipped);
+    }
+  }
+
+  /**
+   * Decides whether the trees of a class about to be scanned can be skipped. Only top-level
+   * classes are looked at; they are entered in order, after the imports of their unit.
+   */
+  private void enterClass(ClassTree tree, VisitorState state) {
+    if (!options.skipGenerated
+        || tree == currentClass
+        || state.getPath().getParentPath().getLeaf().getKind() != Tree.Kind.COMPILATION_UNIT) {
+      return;
+    }
+    currentClass = tree;
+    currentClassSkipped = false;
+    for (AnnotationTree annotation : tree.getModifiers().getAnnotations()) {
+      // javax.annotation.Generated, javax.annotation.processing.Generated and the like; the
+      // name is compared without resolving it
+      String type = annotation.getAnnotationType().toString();
+      if (type.equals("Generated") || type.endsWith(".Generated")) {
+        currentClassSkipped = true;
+        if (stats != null) {
+          stats.recordGeneratedClass();
+        }
+        return;
+      }
+    }
+  }
+
+  /** Returns true if the unit's source file is below one of the generated source directories. */
+  private boolean isInGeneratedSourceDir(CompilationUnitTree unit) {
+    if (options.generatedSourceDirs.isEmpty() || unit.getSourceFile() == null) {
+      return false;
+    }
+    String path = unit.getSourceFile().toUri().getPath();
+    if (path == null) {
+      return false;
+    }
+    for (String dir : options.generatedSourceDirs) {
+      if (path.contains(dir)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns false if the unit is not in a checked package, imports nothing from one, and does not
+   * mention one in its source, such as in a fully qualified name.
+   */
+  private boolean mayReferenceCheckedPackages(CompilationUnitTree unit, VisitorState state) {
+    ExpressionTree packageName = unit.getPackageName();
+    if (packages.matches(packageName == null ? "" : packageName.toString())) {
+      return true;
+    }
+    for (ImportTree importTree : unit.getImports()) {
+      if (packages.matches(importTree.getQualifiedIdentifier().toString())) {
+        return true;
+      }
+    }
+    CharSequence source = state.getSourceCode();
+    if (source == null) {
+      return true;
+    }
+    String text = source.toString();
+    for (String prefix : options.packageNames) {
+      if (text.contains(prefix.trim())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the verdict to report uses of the symbol with, which is that of {@link #find} unless
+   * the symbol is an allowed API. The allowlist is consulted once per annotated symbol.
+   */
+  private Verdict findReported(Symbol symbol) {
+    if (!isChecked(symbol)) {
+      return Verdict.NONE;
+    }
+    if (allowed == null) {
+      return findChecked(symbol);
+    }
+    Verdict verdict = reportedVerdicts.get(symbol);
+    if (verdict == null) {
+      verdict = findChecked(symbol);
+      if (verdict.isAnnotated() && allowed.matches(Baseline.apiName(symbol))) {
+        verdict = Verdict.ALLOWED;
+      }
+      reportedVerdicts.put(symbol, verdict);
+    }
+    return verdict;
+  }
+
+  /**
+   * Returns the annotations on the symbol or its nearest annotated owners.
+   */
+  Verdict find(Symbol symbol) {
+    return isChecked(symbol) ? findChecked(symbol) : Verdict.NONE;
+  }
+
+  /**
+   * Returns false if the symbol is null or belongs to a package outside the configured prefixes.
+   * Such symbols are never cached, so the verdicts only grow with the symbols of checked packages.
+   */
+  private boolean isChecked(Symbol symbol) {
+    if (symbol != null && mayContainAnnotatedApis(symbol)) {
+      return true;
+    }
+    if (stats != null) {
+      stats.recordUncheckedSymbol();
+    }
+    return false;
+  }
+
+  /** Returns the verdict of a symbol in one of the checked packages. */
+  private Verdict findChecked(Symbol symbol) {
+    Verdict verdict = verdicts.get(symbol);
+    if (verdict != null) {
+      if (stats != null) {
+        stats.recordCacheHit();
+      }
+      return verdict;
+    }
+
+    if (options.index != null || options.snapshots != null || options.cacheDir != null) {
+      if (stats != null) {
+        stats.recordIndexLookup();
+      }
+      Verdict indexed = findInIndexes(symbol);
+      if (indexed != null) {
+        if (stats != null) {
+          stats.recordCacheMiss(0);
+        }
+        verdicts.put(symbol, indexed);
+        return indexed;
+      }
+    }
+
+    SharedVerdicts.ClassVerdicts sharedClass = sharedVerdicts(symbol);
+    String elementKey = null;
+    if (sharedClass != null) {
+      String descriptor = symbol instanceof ClassSymbol ? "" : descriptor(symbol.type);
+      if (descriptor == null) {
+        sharedClass = null;
+      } else {
+        elementKey = symbol instanceof ClassSymbol ? "" : symbol.name + ":" + descriptor;
+      }
+    }
+    if (sharedClass != null) {
+      Map<String, String> known = sharedClass.get(elementKey);
+      if (stats != null) {
+        stats.recordSharedLookup(known != null);
+      }
+      if (known != null) {
+        verdict = toVerdict(known);
+        verdicts.put(symbol, verdict);
+        return verdict;
+      }
+    }
+
+    // Walk up until an owner with a known verdict, then fill in the chain from the top down so
+    // that every symbol visited on the way is cached as well. Annotations of enclosing packages
+    // apply too, such as those of io.grpc.internal to io.grpc.internal.testing, but the walk
+    // ends at the first package outside the checked ones: reading its annotations would complete
+    // packages such as io and the unnamed package, which javac may otherwise never list.
+    List<Symbol> uncached = new ArrayList<>();
+    Verdict inherited = Verdict.NONE;
+    for (Symbol s = symbol; s != null; s = s.owner) {
+      if (s.kind == Kind.PCK && !isCheckedPackage((PackageSymbol) s)) {
+        break;
+      }
+      Verdict known = verdicts.get(s);
+      if (known != null) {
+        inherited = known;
+        break;
+      }
+      uncached.add(s);
+    }
+    if (stats != null) {
+      stats.recordCacheMiss(uncached.size());
+    }
+    for (int i = uncached.size() - 1; i >= 0; i--) {
+      Symbol s = uncached.get(i);
+      if (stats != null && !s.isCompleted()) {
+        stats.recordCompletion();
+      }
+      inherited = inherited.with(s.getAnnotationMirrors(), masksByType, slotCount);
+      verdicts.put(s, inherited);
+    }
+    if (sharedClass != null) {
+      sharedClass.put(elementKey, toAnnotationValues(inherited));
+    }
+    return inherited;
+  }
+
+  /**
+   * Returns the shared verdicts for the class of a class or member loaded from a jar, or null if
+   * they are disabled or the symbol did not come from a jar.
+   */
+  private SharedVerdicts.ClassVerdicts sharedVerdicts(Symbol symbol) {
+    if (options.sharedCacheSize <= 0) {
+      return null;
+    }
+    ClassSymbol owner;
+    if (symbol instanceof ClassSymbol) {
+      owner = (ClassSymbol) symbol;
+    } else if ((symbol.kind == Kind.VAR || symbol.kind == Kind.MTH)
+        && symbol.owner instanceof ClassSymbol) {
+      owner = (ClassSymbol) symbol.owner;
+    } else {
+      return null;
+    }
+    String classKey = jarEntryKey(owner.classfile);
+    if (classKey == null) {
+      return null;
+    }
+    // The annotations of the package apply as well, and its package-info may come from another
+    // jar, as packages can be split.
+    PackageSymbol packageSymbol = owner.packge();
+    try {
+      packageSymbol.complete();
+    } catch (CompletionFailure e) {
+      return null;
+    }
+    String packageKey = "";
+    if (packageSymbol.package_info != null && packageSymbol.package_info.classfile != null) {
+      packageKey = jarEntryKey(packageSymbol.package_info.classfile);
+      if (packageKey == null) {
+        return null;
+      }
+    }
+    if (shared == null) {
+      shared = SharedVerdicts.forAnnotationTypes(masksByName.keySet(), options.sharedCacheSize);
+    }
+    return shared.forClass(classKey + "|" + packageKey);
+  }
+
+  /**
+   * Returns the content hash of the jar of a class file followed by the file's entry in it, or
+   * null if the class file did not come from a readable jar.
+   */
+  private String jarEntryKey(JavaFileObject classfile) {
+    if (classfile == null || classfile.getKind() != JavaFileObject.Kind.CLASS) {
+      return null;
+    }
+    String uri = classfile.toUri().toString();
+    int entry = uri.indexOf("!/");
+    if (!uri.startsWith("jar:") || entry < 0) {
+      return null;
+    }
+    String hash = jarHashes.computeIfAbsent(uri.substring(0, entry), VerdictCache::jarHash);
+    return hash.isEmpty() ? null : hash + uri.substring(entry);
+  }
+
+  /**
+   * Returns the SHA-256 of a jar's content, or "" if it cannot be read. The jar is read once per
+   * compilation rather than remembered by its size and modification time, so that a jar rewritten
+   * in place never shares the verdicts of its former content.
+   */
+  private static String jarHash(String jarUri) {
+    try {
+      return IndexCache.hashContent(Paths.get(URI.create(jarUri.substring("jar:".length()))));
+    } catch (IOException | IllegalArgumentException | FileSystemNotFoundException e) {
+      return "";
+    }
+  }
+
+  /** Returns the annotation types of a verdict, with their value elements. */
+  private Map<String, String> toAnnotationValues(Verdict verdict) {
+    if (!verdict.isAnnotated()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> values = new HashMap<>();
+    for (int slot = 0; slot < slotCount; slot++) {
+      Attribute.Compound annotation = verdict.get(slot);
+      if (annotation != null) {
+        values.put(annotation.type.tsym.getQualifiedName().toString(), valueOf(annotation));
+      }
+    }
+    return Collections.unmodifiableMap(values);
+  }
+
+  private Verdict toVerdict(Map<String, String> annotationValues) {
+    if (annotationValues.isEmpty()) {
+      return Verdict.NONE;
+    }
+    long mask = 0;
+    Attribute.Compound[] annotations = new Attribute.Compound[slotCount];
+    for (Map.Entry<String, String> type : annotationValues.entrySet()) {
+      Long slots = masksByName.get(type.getKey());
+      if (slots == null) {
+        continue;
+      }
+      Attribute.Compound annotation = indexedAnnotation(type.getKey(), type.getValue());
+      for (long remaining = slots; remaining != 0; remaining &= remaining - 1) {
+        annotations[Long.numberOfTrailingZeros(remaining)] = annotation;
+      }
+      mask |= slots;
+    }
+    return mask == 0 ? Verdict.NONE : new Verdict(mask, annotations);
+  }
+
+  /**
+   * Returns the verdict for a class or member loaded from a class file that one of the indexes
+   * covers, or null if none can answer for the symbol.
+   */
+  private Verdict findInIndexes(Symbol symbol) {
+    ClassSymbol outermost = null;
+    for (Symbol s = symbol; s != null && s.kind != Kind.PCK; s = s.owner) {
+      if (s instanceof ClassSymbol) {
+        outermost = (ClassSymbol) s;
+      }
+    }
+    if (outermost == null
+        || outermost.classfile == null
+        || outermost.classfile.getKind() != JavaFileObject.Kind.CLASS) {
+      return null;
+    }
+    String className;
+    boolean member;
+    if (symbol instanceof ClassSymbol) {
+      className = internalName((ClassSymbol) symbol);
+      member = false;
+    } else if ((symbol.kind == Kind.VAR || symbol.kind == Kind.MTH)
+        && symbol.owner instanceof ClassSymbol) {
+      className = internalName((ClassSymbol) symbol.owner);
+      member = true;
+    } else {
+      return null;
+    }
+    String classKey = ApiIndex.classKey(className);
+    String memberKey = null;
+    for (ApiIndex index : indexes()) {
+      if (!coversSlots(index)) {
+        continue;
+      }
+      if (index == snapshot && !isOfSnapshotRelease(outermost.classfile)) {
+        continue;
+      }
+      ApiIndex.Entry entry = index.find(classKey);
+      if (entry == null || !agreesOnPackage(index, outermost.packge())) {
+        continue;
+      }
+      if (member) {
+        if (memberKey == null) {
+          // Descriptors of constructors with synthetic parameters, such as those of inner
+          // classes, do not match; such members fall back to the annotations of their class.
+          // Members of erroneous types have none and are left to their symbols.
+          String descriptor = descriptor(symbol.type);
+          if (descriptor == null) {
+            return null;
+          }
+          memberKey = ApiIndex.memberKey(className, symbol.name.toString(), descriptor);
+        }
+        ApiIndex.Entry memberEntry = index.find(memberKey);
+        if (memberEntry != null) {
+          entry = memberEntry;
+        }
+      }
+      return toVerdict(index, entry);
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if a class file comes from a jar of the release of the snapshot. Classes of
+   * other releases on the same classpath, and of directories, are left to the other indexes and
+   * their symbols.
+   */
+  private boolean isOfSnapshotRelease(JavaFileObject classfile) {
+    String uri = classfile.toUri().toString();
+    int entry = uri.indexOf("!/");
+    if (!uri.startsWith("jar:") || entry < 0) {
+      return false;
+    }
+    return snapshotJars.computeIfAbsent(uri.substring(0, entry), jarUri -> {
+      try {
+        File jar = Paths.get(URI.create(jarUri.substring("jar:".length()))).toFile();
+        return snapshotVersion.equals(ApiSnapshots.version(jar));
+      } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Returns true if the index has the same annotations for the package as its symbol. An index
+   * built from some of the classpath, such as that of one jar, lacks the package-infos of split
+   * packages held by other jars, and so the package annotations of its class entries.
+   */
+  private boolean agreesOnPackage(ApiIndex index, PackageSymbol packageSymbol) {
+    Pair<ApiIndex, PackageSymbol> key = new Pair<>(index, packageSymbol);
+    Boolean agrees = indexedPackages.get(key);
+    if (agrees == null) {
+      ApiIndex.Entry entry =
+          index.find(ApiIndex.packageKey(packageSymbol.fullname.toString().replace('.', '/')));
+      agrees = sameAnnotations(
+          entry == null ? Verdict.NONE : toVerdict(index, entry), find(packageSymbol));
+      indexedPackages.put(key, agrees);
+    }
+    return agrees;
+  }
+
+  /** Returns true if the verdicts have annotations of the same types with the same values. */
+  private boolean sameAnnotations(Verdict a, Verdict b) {
+    if (a.mask != b.mask) {
+      return false;
+    }
+    for (int slot = 0; slot < slotCount; slot++) {
+      Attribute.Compound x = a.get(slot);
+      Attribute.Compound y = b.get(slot);
+      if (x != null
+          && (x.type.tsym != y.type.tsym || !Objects.equals(valueOf(x), valueOf(y)))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the value element of an annotation if it is a string, or null. */
+  private String valueOf(Attribute.Compound annotation) {
+    Attribute value = annotation.member(names.value);
+    return value != null && value.getValue() instanceof String ? (String) value.getValue() : null;
+  }
+
+  /** Returns true if the index records every registered annotation type. */
+  private boolean coversSlots(ApiIndex index) {
+    return index.annotationTypes().containsAll(masksByName.keySet());
+  }
+
+  private Verdict toVerdict(ApiIndex index, ApiIndex.Entry entry) {
+    long mask = 0;
+    Attribute.Compound[] annotations = new Attribute.Compound[slotCount];
+    List<String> indexTypes = index.annotationTypes();
+    for (int bit = 0; bit < indexTypes.size(); bit++) {
+      Long slots = masksByName.get(indexTypes.get(bit));
+      if (!entry.has(bit) || slots == null) {
+        continue;
+      }
+      Attribute.Compound annotation = indexedAnnotation(indexTypes.get(bit), entry.value(bit));
+      for (long remaining = slots; remaining != 0; remaining &= remaining - 1) {
+        annotations[Long.numberOfTrailingZeros(remaining)] = annotation;
+      }
+      mask |= slots;
+    }
+    return mask == 0 ? Verdict.NONE : new Verdict(mask, annotations);
+  }
+
+  /** Returns an annotation of the named type with the given value element. */
+  private Attribute.Compound indexedAnnotation(String typeName, String value) {
+    Map<String, Attribute.Compound> known =
+        indexedAnnotations.computeIfAbsent(typeName, n -> new HashMap<>());
+    String key = value == null ? "" : value;
+    Attribute.Compound annotation = known.get(key);
+    if (annotation == null) {
+      TypeSymbol type = typesByName.get(typeName);
+      com.sun.tools.javac.util.List<Pair<MethodSymbol, Attribute>> values =
+          com.sun.tools.javac.util.List.nil();
+      if (value != null) {
+        for (Symbol element : type.members().getSymbolsByName(names.value)) {
+          if (element instanceof MethodSymbol) {
+            values = com.sun.tools.javac.util.List.of(new Pair<>(
+                (MethodSymbol) element, new Attribute.Constant(symtab.stringType, value)));
+            break;
+          }
+        }
+      }
+      annotation = new Attribute.Compound(type.type, values);
+      known.put(key, annotation);
+    }
+    return annotation;
+  }
+
+  private static String internalName(ClassSymbol symbol) {
+    return symbol.flatname.toString().replace('.', '/');
+  }
+
+  /**
+   * Returns the class file descriptor of the erasure of a field or method type, or null if it
+   * has none, such as when the type is erroneous.
+   */
+  private String descriptor(Type type) {
+    StringBuilder descriptor = new StringBuilder();
+    return appendDescriptor(descriptor, types.erasure(type)) ? descriptor.toString() : null;
+  }
+
+  /** Appends the descriptor of an erased type, or returns false if it has none. */
+  private boolean appendDescriptor(StringBuilder descriptor, Type type) {
+    switch (type.getTag()) {
+      case BYTE:
+        descriptor.append('B');
+        return true;
+      case CHAR:
+        descriptor.append('C');
+        return true;
+      case SHORT:
+        descriptor.append('S');
+        return true;
+      case INT:
+        descriptor.append('I');
+        return true;
+      case LONG:
+        descriptor.append('J');
+        return true;
+      case FLOAT:
+        descriptor.append('F');
+        return true;
+      case DOUBLE:
+        descriptor.append('D');
+        return true;
+      case BOOLEAN:
+        descriptor.append('Z');
+        return true;
+      case VOID:
+        descriptor.append('V');
+        return true;
+      case ARRAY:
+        descriptor.append('[');
+        return appendDescriptor(descriptor, types.elemtype(type));
+      case METHOD:
+      case FORALL:
+        descriptor.append('(');
+        for (Type parameter : type.getParameterTypes()) {
+          if (!appendDescriptor(descriptor, types.erasure(parameter))) {
+            return false;
+          }
+        }
+        descriptor.append(')');
+        return appendDescriptor(descriptor, types.erasure(type.getReturnType()));
+      case CLASS:
+        descriptor.append('L').append(internalName((ClassSymbol) type.tsym)).append(';');
+        return true;
+      default:
+        // Type variables and the like erase to a type of another tag; erroneous and unknown
+        // types erase to themselves and have no descriptor.
+        Type erased = types.erasure(type);
+        return erased.getTag() != type.getTag() && appendDescriptor(descriptor, erased);
+    }
+  }
+
+  /**
+   * Returns the mask of annotations that apply to the method and to every method it overrides.
+   */
+  private long findOnHierarchy(MethodSymbol method, VisitorState state) {
+    Long cached = hierarchyMasks.get(method);
+    if (cached != null) {
+      return cached;
+    }
+    long mask = find(method).mask;
+    if (mask != 0) {
+      if (stats != null) {
+        stats.recordSuperMethodLookup();
+      }
+      for (MethodSymbol superMethod : ASTHelpers.findSuperMethods(method, state.getTypes())) {
+        mask &= find(superMethod).mask;
+        if (mask == 0) {
+          break;
+        }
+      }
+    }
+    hierarchyMasks.put(method, mask);
+    return mask;
+  }
+
+  /**
+   * Returns false if the symbol belongs to a package outside the configured prefixes, in which
+   * case it is not worth looking at its annotations.
+   */
+  private boolean mayContainAnnotatedApis(Symbol symbol) {
+    Symbol s = symbol;
+    while (s != null && s.kind != Kind.PCK) {
+      s = s.owner;
+    }
+    return s == null || isCheckedPackage((PackageSymbol) s);
+  }
+
+  /** Returns true if the package matches the configured prefixes. */
+  private boolean isCheckedPackage(PackageSymbol packageSymbol) {
+    Boolean matches = checkedPackages.get(packageSymbol);
+    if (matches == null) {
+      matches = packages.matches(packageSymbol.fullname);
+      checkedPackages.put(packageSymbol, matches);
+    }
+    return matches;
+  }
+
+  /**
+   * The checked annotations that apply to a symbol, either directly or through one of its owners.
+   * For each annotation type, the annotation closest to the symbol wins.
+   */
+  static final class Verdict {
+    static final Verdict NONE = new Verdict(0, new Attribute.Compound[0]);
+
+    /** The verdict of an annotated symbol whose uses are allowed. */
+    static final Verdict ALLOWED = new Verdict(0, new Attribute.Compound[0]);
+
+    private final long mask;
+    private final Attribute.Compound[] annotations;
+
+    private Verdict(long mask, Attribute.Compound[] annotations) {
+      this.mask = mask;
+      this.annotations = annotations;
+    }
+
+    /** Returns true if any checked annotation applies. */
+    boolean isAnnotated() {
+      return mask != 0;
+    }
+
+    /** Returns the annotation of the given slot, or null if it does not apply. */
+    Attribute.Compound get(int slot) {
+      return (mask & (1L << slot)) == 0 ? null : annotations[slot];
+    }
+
+    /** Returns this verdict overridden by the annotations declared directly on a symbol. */
+    private Verdict with(
+        List<Attribute.Compound> declared, Map<TypeSymbol, Long> masksByType, int slotCount) {
+      long newMask = mask;
+      Attribute.Compound[] newAnnotations = null;
+      for (Attribute.Compound annotation : declared) {
+        Long slots = masksByType.get(annotation.type.tsym);
+        if (slots == null) {
+          continue;
+        }
+        if (newAnnotations == null) {
+          newAnnotations = Arrays.copyOf(annotations, slotCount);
+        }
+        for (long remaining = slots; remaining != 0; remaining &= remaining - 1) {
+          newAnnotations[Long.numberOfTrailingZeros(remaining)] = annotation;
+        }
+        newMask |= slots;
+      }
+      return newAnnotations == null ? this : new Verdict(newMask, newAnnotations);
+    }
+  }
+
+  /** The annotation types registered by a checker. */
+  static final class Slot {
+    private final VerdictCache cache;
+    private final int index;
+    private final CheckerStats.Checker stats;
+
+    private Slot(VerdictCache cache, int index, CheckerStats.Checker stats) {
+      this.cache = cache;
+      this.index = index;
+      this.stats = stats;
+    }
+
+    /** Called before the trees of a compilation unit are matched. */
+    void enterCompilationUnit(CompilationUnitTree unit, VisitorState state) {
+      cache.enterCompilationUnit(unit, state);
+    }
+
+    /** Called before the trees of a class are matched. */
+    void enterClass(ClassTree tree, VisitorState state) {
+      cache.enterClass(tree, state);
+    }
+
+    /** Returns true if the trees of the current compilation unit or class need not be matched. */
+    boolean skipsCurrentTrees() {
+      return cache.currentUnitSkipped || cache.currentClassSkipped;
+    }
+
+    /** Returns the counters of the checker the slot was registered for, or null. */
+    CheckerStats.Checker stats() {
+      return stats;
+    }
+
+    /** Returns false if none of the annotations are available, so no symbol can carry them. */
+    boolean canMatch() {
+      return index >= 0;
+    }
+
+    /**
+     * Returns the annotation on the symbol or its nearest annotated owner, or null if there is
+     * none. If several of the slot's types apply at the same level, one of them is returned.
+     */
+    Attribute.Compound find(Symbol symbol) {
+      return canMatch() ? cache.findReported(symbol).get(index) : null;
+    }
+
+    /** Returns true if the symbol carries checked annotations but is an allowed API. */
+    boolean isAllowed(Symbol symbol) {
+      return cache.allowed != null && cache.findReported(symbol) == Verdict.ALLOWED;
+    }
+
+    /** Returns true if the symbol belongs to one of the checked packages. */
+    boolean isInCheckedPackage(Symbol symbol) {
+      return cache.mayContainAnnotatedApis(symbol);
+    }
+
+    /** Returns the names of the checked annotation types that apply to the symbol, sorted. */
+    Set<String> annotationTypes(Symbol symbol) {
+      Verdict verdict = cache.find(symbol);
+      Set<String> names = new TreeSet<>();
+      for (int slot = 0; slot < cache.slotCount; slot++) {
+        Attribute.Compound annotation = verdict.get(slot);
+        if (annotation != null) {
+          names.add(annotation.type.tsym.getQualifiedName().toString());
+        }
+      }
+      return names;
+    }
+
+    /**
+     * Returns true if one of the annotations applies to the method and to every method it
+     * overrides.
+     */
+    boolean isOnHierarchy(MethodSymbol method, VisitorState state) {
+      return canMatch() && (cache.findOnHierarchy(method, state) & (1L << index)) != 0;
+    }
+  }
+}
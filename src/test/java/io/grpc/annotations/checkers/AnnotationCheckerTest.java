@@ -0,0 +1,859 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.scanner.ScannerSupplier;
+import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.main.Main;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for running {@link InternalChecker}, {@link ExperimentalApiChecker} and
+ * {@link AnnotatedApiChecker} together.
+ */
+@RunWith(JUnit4.class)
+public class AnnotationCheckerTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private CompilationTestHelper compiler;
+
+  @Before
+  public void setUp() {
+    compiler = CompilationTestHelper.newInstance(
+        ScannerSupplier.fromBugCheckerClasses(
+            InternalChecker.class, ExperimentalApiChecker.class, AnnotatedApiChecker.class),
+        getClass());
+
+    compiler.addSourceLines("io/grpc/Internal.java",
+        "package io.grpc;",
+        "",
+        "public @interface Internal {}");
+
+    compiler.addSourceLines("io/grpc/ExperimentalApi.java",
+        "package io.grpc;",
+        "",
+        "public @interface ExperimentalApi {",
+        "  String value() default \"\";",
+        "}");
+
+    // add a class with members carrying either or both annotations
+    compiler.addSourceLines("io/grpc/Mixed.java",
+        "package io.grpc;",
+        "",
+        "@ExperimentalApi(\"https://example.com/issue\")",
+        "public class Mixed {",
+        "  public static final int EXPERIMENTAL = 1;",
+        "  @Internal",
+        "  public static final int INTERNAL = 2;",
+        "}");
+  }
+
+  @Test
+  public void bothCheckersReport() {
+    compiler
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcExperimentalApi",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcExperimentalApi",
+            "    System.out.println(Mixed.EXPERIMENTAL);",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(Mixed.INTERNAL);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void checkerCanBeDisabledIndependently() {
+    compiler
+        .setArgs("-Xep:GrpcExperimentalApi:OFF")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    System.out.println(Mixed.EXPERIMENTAL);",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(Mixed.INTERNAL);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void packagesOutsideConfiguredPrefixesAreNotChecked() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Packages=com.acme")
+        .addSourceLines("com/acme/Vendored.java",
+            "package com.acme;",
+            "",
+            "@io.grpc.Internal",
+            "public class Vendored {}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "import io.grpc.Mixed;",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import com.acme.Vendored;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    System.out.println(Mixed.INTERNAL);",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(new Vendored());",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void additionalAnnotationTypesShareTheChecker() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:InternalAnnotations="
+            + "io.grpc.Internal,com.acme.shaded.io.grpc.Internal")
+        .addSourceLines("com/acme/shaded/io/grpc/Internal.java",
+            "package com.acme.shaded.io.grpc;",
+            "",
+            "public @interface Internal {}")
+        .addSourceLines("io/grpc/Relocated.java",
+            "package io.grpc;",
+            "",
+            "public class Relocated {",
+            "  @com.acme.shaded.io.grpc.Internal",
+            "  public static final int SHADED = 1;",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(io.grpc.Relocated.SHADED);",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(io.grpc.Mixed.INTERNAL);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void configuredAnnotationsAreReportedWithTheirSeverity() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Annotations=io.grpc.Beta:WARNING,io.grpc.Incubating")
+        .addSourceLines("io/grpc/Beta.java",
+            "package io.grpc;",
+            "",
+            "public @interface Beta {}")
+        .addSourceLines("io/grpc/Incubating.java",
+            "package io.grpc;",
+            "",
+            "public @interface Incubating {}")
+        .addSourceLines("io/grpc/Preview.java",
+            "package io.grpc;",
+            "",
+            "public class Preview {",
+            "  @Beta",
+            "  public static final int BETA = 1;",
+            "  @Incubating",
+            "  public static final int INCUBATING = 2;",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: [GrpcAnnotatedApi:Beta] @Beta should not be used",
+            "    System.out.println(io.grpc.Preview.BETA);",
+            "  }",
+            "}")
+        .expectResult(Main.Result.OK)
+        .doTest();
+  }
+
+  @Test
+  public void configuredAnnotationsDefaultToCheckerSeverity() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Annotations=io.grpc.Incubating")
+        .addSourceLines("io/grpc/Incubating.java",
+            "package io.grpc;",
+            "",
+            "public @interface Incubating {}")
+        .addSourceLines("io/grpc/Preview.java",
+            "package io.grpc;",
+            "",
+            "@Incubating",
+            "public class Preview {}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcAnnotatedApi",
+            "    System.out.println(new io.grpc.Preview());",
+            "  }",
+            "}")
+        .expectResult(Main.Result.ERROR)
+        .doTest();
+  }
+
+  @Test
+  public void packagesOfConfiguredAnnotationsAreChecked() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Annotations=com.acme.Beta",
+            "-XepOpt:GrpcApiChecker:InternalAnnotations=com.acme.shaded.io.grpc.Internal")
+        .addSourceLines("com/acme/Beta.java",
+            "package com.acme;",
+            "",
+            "public @interface Beta {}")
+        .addSourceLines("com/acme/shaded/io/grpc/Internal.java",
+            "package com.acme.shaded.io.grpc;",
+            "",
+            "public @interface Internal {}")
+        .addSourceLines("com/acme/client/Preview.java",
+            "package com.acme.client;",
+            "",
+            "@com.acme.Beta",
+            "public class Preview {}")
+        .addSourceLines("com/acme/shaded/io/grpc/Util.java",
+            "package com.acme.shaded.io.grpc;",
+            "",
+            "public class Util {",
+            "  @Internal",
+            "  public static final int SHADED = 1;",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcAnnotatedApi",
+            "    System.out.println(new com.acme.client.Preview());",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(com.acme.shaded.io.grpc.Util.SHADED);",
+            "  }",
+            "}")
+        .expectResult(Main.Result.ERROR)
+        .doTest();
+    assertEquals(Arrays.asList("com.acme", "io.grpc"), CheckerOptions.defaultPackages(
+        Arrays.asList("com.acme.Beta", "com.acme.Outer.Nested", "io.grpc.Internal")));
+  }
+
+  @Test
+  public void qualifiedChainIsReportedOnce() throws IOException {
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("checkers.json");
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("io/grpc/internal/Util.java",
+            "package io.grpc.internal;",
+            "",
+            "@io.grpc.Internal",
+            "public class Util {",
+            "  public static final StringBuilder BUFFER = new StringBuilder();",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    io.grpc.internal.Util.BUFFER.append(args.length).append(args[0]);",
+            "  }",
+            "}")
+        .doTest();
+
+    String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    assertTrue(json, json.matches("(?s).*\"GrpcInternal\": \\{[^}]*\"matches\": 1,.*"));
+  }
+
+  @Test
+  public void annotatedQualifierIsReportedWhenMemberIsNot() {
+    compiler
+        .addSourceLines("io/grpc/StableBase.java",
+            "package io.grpc;",
+            "",
+            "public class StableBase {",
+            "  public static final int CONSTANT = 1;",
+            "}")
+        .addSourceLines("io/grpc/InternalSub.java",
+            "package io.grpc;",
+            "",
+            "@Internal",
+            "public class InternalSub extends StableBase {}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(io.grpc.InternalSub.CONSTANT);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void statsAreWrittenWhenCompilationFinishes() throws IOException {
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("stats/checkers.json");
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(io.grpc.Mixed.INTERNAL);",
+            "  }",
+            "}")
+        .doTest();
+
+    String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    assertTrue(json, json.contains("\"GrpcInternal\": {\"treesMatched\": "));
+    assertTrue(json, json.contains("\"GrpcExperimentalApi\": {\"treesMatched\": "));
+    assertTrue(json, json.matches("(?s).*\"GrpcInternal\": \\{[^}]*\"matches\": 1,.*"));
+    assertTrue(json, json.contains("\"uncheckedSymbols\": "));
+    assertTrue(json, json.contains("\"ownerWalkDepths\": ["));
+    assertTrue(json, json.contains("\"completions\": "));
+  }
+
+  @Test
+  public void unrelatedFilesAreSkipped() throws IOException {
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("checkers.json");
+    compiler
+        .setArgs(
+            "-XepOpt:GrpcApiChecker:SkipUnrelatedFiles=true",
+            "-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("example/Imports.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcExperimentalApi",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Imports {",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int value = Mixed.INTERNAL;",
+            "}")
+        .addSourceLines("example/Qualifies.java",
+            "package example;",
+            "",
+            "public class Qualifies {",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int value = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .addSourceLines("example/Unrelated.java",
+            "package example;",
+            "",
+            "public class Unrelated {",
+            "  int value = new Imports().value;",
+            "}")
+        .doTest();
+
+    String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    assertTrue(json, json.contains("\"compilationUnits\": {\"checked\": 5, \"skipped\": 1}"));
+  }
+
+  @Test
+  public void baselineAcceptsRecordedUses() throws IOException {
+    Path baseline = temporaryFolder.getRoot().toPath().resolve("baseline.txt");
+    compiler
+        .setArgs(
+            "-XepOpt:GrpcApiChecker:Baseline=" + baseline,
+            "-XepOpt:GrpcApiChecker:WriteBaseline=true")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    System.out.println(Mixed.INTERNAL);",
+            "    System.out.println(Mixed.INTERNAL);",
+            "  }",
+            "}")
+        .doTest();
+
+    String written = new String(Files.readAllBytes(baseline), StandardCharsets.UTF_8);
+    assertTrue(written, written.contains("\tGrpcInternal\tio.grpc.Mixed#INTERNAL\t2\n"));
+    assertTrue(written, written.contains("\tGrpcExperimentalApi\tio.grpc.Mixed#INTERNAL\t2\n"));
+
+    // a third use of the internal field and a use of another field are new
+    setUp();
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Baseline=" + baseline)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    System.out.println(Mixed.INTERNAL);",
+            "    System.out.println(Mixed.INTERNAL);",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(Mixed.INTERNAL);",
+            "    // BUG: Diagnostic contains: GrpcExperimentalApi",
+            "    System.out.println(Mixed.EXPERIMENTAL);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void baselineNamesFilesRelativeToItsDirectory() throws IOException {
+    Path project = temporaryFolder.newFolder("project").toPath();
+    Path baseline = project.resolve("api-baseline.txt");
+    for (String module : Arrays.asList("client", "server")) {
+      compileModule(project.resolve(module),
+          "-XepOpt:GrpcApiChecker:Baseline=" + baseline,
+          "-XepOpt:GrpcApiChecker:WriteBaseline=true");
+    }
+    List<String> lines = Files.readAllLines(baseline, StandardCharsets.UTF_8);
+    assertTrue(lines.toString(), lines.containsAll(Arrays.asList(
+        "client/src/example/Test.java",
+        "\tGrpcInternal\tio.grpc.Channel#INTERNAL\t1",
+        "server/src/example/Test.java")));
+
+    Path moduleBaseline = temporaryFolder.getRoot().toPath().resolve("baselines/client.txt");
+    compileModule(project.resolve("client"),
+        "-XepOpt:GrpcApiChecker:Baseline=" + moduleBaseline,
+        "-XepOpt:GrpcApiChecker:BaselineRoot=" + project.resolve("client"),
+        "-XepOpt:GrpcApiChecker:WriteBaseline=true");
+    lines = Files.readAllLines(moduleBaseline, StandardCharsets.UTF_8);
+    assertTrue(lines.toString(), lines.contains("src/example/Test.java"));
+  }
+
+  private void compileModule(Path module, String... options) throws IOException {
+    Path sources = module.resolve("src");
+    List<File> files = Arrays.asList(
+        write(sources, "io/grpc/Internal.java",
+            "package io.grpc;",
+            "public @interface Internal {}"),
+        write(sources, "io/grpc/Channel.java",
+            "package io.grpc;",
+            "public class Channel {",
+            "  @Internal",
+            "  public static final int INTERNAL = 1;",
+            "}"),
+        write(sources, "example/Test.java",
+            "package example;",
+            "public class Test {",
+            "  int a = io.grpc.Channel.INTERNAL;",
+            "}"));
+    JavaCompiler javac = new BaseErrorProneJavaCompiler(
+        ScannerSupplier.fromBugCheckerClasses(InternalChecker.class));
+    List<String> args = new ArrayList<>(Arrays.asList(
+        "-proc:none", "-d", Files.createDirectories(module.resolve("classes")).toString()));
+    args.addAll(Arrays.asList(options));
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      boolean ok = javac.getTask(null, fileManager, null, args, null,
+          fileManager.getJavaFileObjectsFromFiles(files)).call();
+      assertTrue("compilation of " + module + " failed", ok);
+    }
+  }
+
+  @Test
+  public void usesCanBeReportedPerFile() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Report=PER_FILE", "-Xep:GrpcExperimentalApi:OFF")
+        .addSourceLines("example/First.java",
+            "package example;",
+            "",
+            "public class First {",
+            "  // BUG: Diagnostic contains: (io.grpc.Mixed#INTERNAL: 3 uses in this file)",
+            "  int a = io.grpc.Mixed.INTERNAL;",
+            "  int b = io.grpc.Mixed.INTERNAL;",
+            "  int c = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .addSourceLines("example/Second.java",
+            "package example;",
+            "",
+            "public class Second {",
+            "  // BUG: Diagnostic contains: (io.grpc.Mixed#INTERNAL: 1 use in this file)",
+            "  int a = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void usesCanBeReportedPerCompilation() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Report=PER_COMPILATION", "-Xep:GrpcExperimentalApi:OFF")
+        .addSourceLines("example/First.java",
+            "package example;",
+            "",
+            "public class First {",
+            "  // BUG: Diagnostic contains: (io.grpc.Mixed#INTERNAL: 3 uses in 2 files)",
+            "  int a = io.grpc.Mixed.INTERNAL;",
+            "  int b = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .addSourceLines("example/Second.java",
+            "package example;",
+            "",
+            "public class Second {",
+            "  int a = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void aggregatedUsesAreCountedByJavac() throws IOException {
+    Path sources = temporaryFolder.newFolder("sources").toPath();
+    List<File> files = Arrays.asList(
+        write(sources, "io/grpc/Internal.java",
+            "package io.grpc;",
+            "public @interface Internal {}"),
+        write(sources, "io/grpc/Channel.java",
+            "package io.grpc;",
+            "public class Channel {",
+            "  @Internal",
+            "  public static final int INTERNAL = 1;",
+            "}"),
+        write(sources, "example/First.java",
+            "package example;",
+            "public class First {",
+            "  int a = io.grpc.Channel.INTERNAL;",
+            "}"),
+        write(sources, "example/Second.java",
+            "package example;",
+            "public class Second {",
+            "  int a = io.grpc.Channel.INTERNAL;",
+            "}"));
+    JavaCompiler javac = new BaseErrorProneJavaCompiler(
+        ScannerSupplier.fromBugCheckerClasses(InternalChecker.class));
+    StringWriter output = new StringWriter();
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      javac.getTask(output, fileManager, null,
+          Arrays.asList("-proc:none", "-d", temporaryFolder.newFolder("classes").toString(),
+              "-XepOpt:GrpcApiChecker:Report=PER_FILE"),
+          null, fileManager.getJavaFileObjectsFromFiles(files)).call();
+    }
+
+    // reports of the last file are made before javac counts the errors
+    assertTrue(output.toString(), output.toString().contains("2 errors"));
+  }
+
+  @Test
+  public void annotationsOfEnclosingPackagesApply() {
+    compiler
+        .addSourceLines("io/grpc/internal/package-info.java",
+            "@io.grpc.Internal",
+            "package io.grpc.internal;")
+        .addSourceLines("io/grpc/internal/sub/Foo.java",
+            "package io.grpc.internal.sub;",
+            "",
+            "public class Foo {",
+            "  public static final int VALUE = 1;",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int value = io.grpc.internal.sub.Foo.VALUE;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void allowedApisAreNotReported() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Allow=io.grpc.Mixed#*,io.grpc.Other.**")
+        .addSourceLines("io/grpc/Other.java",
+            "package io.grpc;",
+            "",
+            "@Internal",
+            "public class Other {",
+            "  @Internal",
+            "  public static class Nested {}",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcExperimentalApi",
+            "import io.grpc.Mixed;",
+            "",
+            "public class Test {",
+            "  int experimental = Mixed.EXPERIMENTAL;",
+            "  int internal = Mixed.INTERNAL;",
+            "  Object nested = new io.grpc.Other.Nested();",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void generatedClassesAreSkipped() {
+    compiler
+        .setArgs(
+            "-XepOpt:GrpcApiChecker:SkipGenerated=true",
+            "-XepOpt:GrpcApiChecker:GeneratedSourceDirs=build/generated/")
+        .addSourceLines("example/Grpc.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcExperimentalApi",
+            "import io.grpc.Mixed;",
+            "",
+            "@javax.annotation.Generated(\"protoc-gen-grpc-java\")",
+            "public class Grpc {",
+            "  int value = Mixed.INTERNAL;",
+            "}",
+            "",
+            "class Handwritten {",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int value = Mixed.INTERNAL;",
+            "}")
+        .addSourceLines("build/generated/example/Stub.java",
+            "package example;",
+            "",
+            "import io.grpc.Mixed;",
+            "",
+            "class Stub {",
+            "  int value = Mixed.INTERNAL;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void checkersDoNothingWithoutAnnotationTypes() throws IOException {
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("checkers.json");
+    // the result may already have been remembered by an earlier test in this JVM
+    for (String expected : new String[] {"absent", "absent (cached)"}) {
+      CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+          .setArgs("-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+          .addSourceLines("example/Test.java",
+              "package example;",
+              "",
+              "public class Test {",
+              "  int value = 1;",
+              "}")
+          .doTest();
+
+      String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+      assertTrue(json, json.contains("\"classpathProbe\": \"" + expected));
+      assertTrue(json, json.contains("\"symbolsResolved\": 0,"));
+    }
+  }
+
+  @Test
+  public void nestedAnnotationTypesAreFoundOnClasspath() throws IOException {
+    Path sources = temporaryFolder.newFolder("api").toPath();
+    Path classes = temporaryFolder.newFolder("classes").toPath();
+    Path preview = sources.resolve("io/grpc/Preview.java");
+    Files.createDirectories(preview.getParent());
+    Files.write(preview, Arrays.asList(
+        "package io.grpc;",
+        "public class Preview {",
+        "  public @interface Beta {}",
+        "  @Beta",
+        "  public static final int BETA = 1;",
+        "}"), StandardCharsets.UTF_8);
+    JavacTool javac = JavacTool.create();
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      boolean ok = javac.getTask(null, fileManager, null,
+          Arrays.asList("-d", classes.toString()), null,
+          fileManager.getJavaFileObjects(preview.toFile())).call();
+      assertTrue("fixture compilation failed", ok);
+    }
+
+    CompilationTestHelper.newInstance(AnnotatedApiChecker.class, getClass())
+        .setArgs(
+            "-cp", classes + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:Annotations=io.grpc.Preview.Beta")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  // BUG: Diagnostic contains: [GrpcAnnotatedApi] @Beta should not be used",
+            "  int beta = io.grpc.Preview.BETA;",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void findingsAreWrittenToFile() throws IOException {
+    Path findingsFile = temporaryFolder.getRoot().toPath().resolve("findings/checkers.jsonl");
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:FindingsFile=" + findingsFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  // BUG: Diagnostic contains: GrpcExperimentalApi",
+            "  int a = io.grpc.Mixed.EXPERIMENTAL;",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int b = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .doTest();
+
+    // Mixed.INTERNAL is reported by both checks, as Mixed is experimental
+    List<String> lines = Files.readAllLines(findingsFile, StandardCharsets.UTF_8);
+    assertEquals(lines.toString(), 3, lines.size());
+    assertTrue(lines.get(0), lines.get(0).startsWith(
+        "{\"rule\": \"GrpcExperimentalApi\", \"severity\": \"ERROR\", "
+            + "\"api\": \"io.grpc.Mixed#EXPERIMENTAL\", "
+            + "\"annotation\": \"io.grpc.ExperimentalApi\", "
+            + "\"link\": \"https://example.com/issue\", \"file\": "));
+    assertTrue(lines.get(0), lines.get(0).contains(
+        "example/Test.java\", \"line\": 5, \"column\": 11, \"uses\": 1, \"message\": "));
+    assertTrue(lines.get(1), lines.get(1).startsWith(
+        "{\"rule\": \"GrpcInternal\", \"severity\": \"ERROR\", "
+            + "\"api\": \"io.grpc.Mixed#INTERNAL\", \"annotation\": \"io.grpc.Internal\", "));
+    assertTrue(lines.get(1), lines.get(1).contains("\"line\": 7, \"column\": 11, "));
+    assertTrue(lines.get(2), lines.get(2).startsWith("{\"rule\": \"GrpcExperimentalApi\", "));
+  }
+
+  @Test
+  public void findingsFileSpellingsShareOneLock() throws IOException {
+    Path findingsFile = temporaryFolder.getRoot().toPath().resolve("findings/checkers.jsonl");
+    Path otherSpelling = temporaryFolder.getRoot().toPath()
+        .resolve("module/../findings/./checkers.jsonl");
+    assertEquals(FindingsWriter.realPath(findingsFile), FindingsWriter.realPath(otherSpelling));
+
+    for (Path spelling : Arrays.asList(findingsFile, otherSpelling)) {
+      CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+          .setArgs("-XepOpt:GrpcApiChecker:FindingsFile=" + spelling)
+          .addSourceLines("io/grpc/Internal.java",
+              "package io.grpc;",
+              "",
+              "public @interface Internal {}")
+          .addSourceLines("io/grpc/Util.java",
+              "package io.grpc;",
+              "",
+              "public class Util {",
+              "  @Internal",
+              "  public static final int VALUE = 1;",
+              "}")
+          .addSourceLines("example/Test.java",
+              "package example;",
+              "",
+              "public class Test {",
+              "  // BUG: Diagnostic contains: GrpcInternal",
+              "  int a = io.grpc.Util.VALUE;",
+              "}")
+          .doTest();
+    }
+    assertEquals(2, Files.readAllLines(findingsFile, StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  public void inventoryListsUsedApis() throws IOException {
+    Path inventory = temporaryFolder.getRoot().toPath().resolve("module/grpc-inventory.tsv");
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Inventory=" + inventory)
+        .addSourceLines("io/grpc/Status.java",
+            "package io.grpc;",
+            "",
+            "public final class Status {",
+            "  public static final int OK = 0;",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "import io.grpc.Status;",
+            "",
+            "public class Test {",
+            "  int a = Status.OK;",
+            "  int b = Status.OK;",
+            "  // BUG: Diagnostic contains: GrpcInternal",
+            "  int c = io.grpc.Mixed.INTERNAL;",
+            "}")
+        .doTest();
+
+    List<String> lines = Files.readAllLines(inventory, StandardCharsets.UTF_8);
+    assertTrue(lines.toString(), lines.containsAll(Arrays.asList(
+        "# grpc-java-api-checker inventory",
+        "io.grpc.Mixed\t1\t1\tio.grpc.ExperimentalApi",
+        "io.grpc.Mixed#INTERNAL\t1\t1\tio.grpc.ExperimentalApi,io.grpc.Internal",
+        "io.grpc.Status\t3\t1\t-",
+        "io.grpc.Status#OK\t2\t1\t-")));
+
+    Path other = temporaryFolder.getRoot().toPath().resolve("other/grpc-inventory.tsv");
+    Files.createDirectories(other.getParent());
+    Files.write(other, Arrays.asList(
+        "# grpc-java-api-checker inventory",
+        "io.grpc.Status#OK\t5\t2\tio.grpc.ExperimentalApi"), StandardCharsets.UTF_8);
+    Path merged = temporaryFolder.getRoot().toPath().resolve("grpc-inventory.tsv");
+    InventoryTool.main(new String[] {"--output", merged.toString(), inventory.toString(),
+        other.toString()});
+
+    lines = Files.readAllLines(merged, StandardCharsets.UTF_8);
+    assertTrue(lines.toString(), lines.containsAll(Arrays.asList(
+        "io.grpc.Status\t3\t1\t-",
+        "io.grpc.Status#OK\t7\t3\tio.grpc.ExperimentalApi")));
+  }
+
+  @Test
+  public void staleInventoryIsReplacedWhenNoApiIsUsed() throws IOException {
+    Path inventory = temporaryFolder.getRoot().toPath().resolve("grpc-inventory.tsv");
+    Files.write(inventory, Arrays.asList(
+        Inventory.HEADER,
+        "io.grpc.Status#OK\t5\t1\t-"), StandardCharsets.UTF_8);
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:Inventory=" + inventory)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  int a = 1;",
+            "}")
+        .doTest();
+
+    // the test sources still list the annotation types, which use each other, but not Status
+    List<String> lines = Files.readAllLines(inventory, StandardCharsets.UTF_8);
+    assertEquals(Inventory.HEADER, lines.get(0));
+    assertFalse(lines.toString(), lines.contains("io.grpc.Status#OK\t5\t1\t-"));
+  }
+
+  private static File write(Path root, String path, String... lines) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file.toFile();
+  }
+}
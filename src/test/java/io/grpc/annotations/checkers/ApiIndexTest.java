@@ -0,0 +1,563 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.errorprone.BaseErrorProneJavaCompiler;
+import com.google.errorprone.CompilationTestHelper;
+import com.google.errorprone.scanner.ScannerSupplier;
+import com.sun.tools.javac.api.JavacTool;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ApiIndex} and its use by the checkers. */
+@RunWith(JUnit4.class)
+public class ApiIndexTest {
+
+  private static final List<String> ANNOTATIONS = ApiIndexTool.DEFAULT_ANNOTATIONS;
+  private static final int INTERNAL = 0;
+  private static final int EXPERIMENTAL = 1;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void builderRoundTrip() throws IOException {
+    ApiIndex index = new ApiIndex.Builder(ANNOTATIONS)
+        .add(ApiIndex.classKey("io/grpc/Zeta"), Collections.singletonMap(INTERNAL, null))
+        .add(ApiIndex.classKey("io/grpc/Alpha"), Collections.singletonMap(EXPERIMENTAL, "link"))
+        .add(ApiIndex.classKey("io/grpc/Stable"), Collections.emptyMap())
+        .build();
+
+    assertEquals(ANNOTATIONS, index.annotationTypes());
+    assertEquals(3, index.size());
+    assertEquals("io/grpc/Alpha", index.entries().get(0).key);
+
+    ApiIndex.Entry alpha = index.find("io/grpc/Alpha");
+    assertTrue(alpha.has(EXPERIMENTAL));
+    assertFalse(alpha.has(INTERNAL));
+    assertEquals("link", alpha.value(EXPERIMENTAL));
+    assertTrue(index.find("io/grpc/Zeta").has(INTERNAL));
+    assertEquals(0, index.find("io/grpc/Stable").mask);
+    assertNull(index.find("io/grpc/Missing"));
+  }
+
+  @Test
+  public void buildFromClassFiles() throws IOException {
+    Path classes = compileApi();
+
+    ApiIndex index = ApiIndexTool.build(
+        ANNOTATIONS, new PackagePrefixes(Arrays.asList("io.grpc")), Arrays.asList(classes))
+        .build();
+
+    ApiIndex.Entry channel = index.find(ApiIndex.classKey("io/grpc/Channel"));
+    assertEquals(0, channel.mask);
+    ApiIndex.Entry tuning = index.find(ApiIndex.memberKey("io/grpc/Channel", "withTuning", "(I)V"));
+    assertEquals("https://example.com/tuning", tuning.value(EXPERIMENTAL));
+    assertNull(index.find(ApiIndex.memberKey("io/grpc/Channel", "authority", "()V")));
+
+    // annotations on enclosing classes and packages apply to nested classes and subpackages
+    assertTrue(index.find(ApiIndex.classKey("io/grpc/Channel$Impl")).has(INTERNAL));
+    assertTrue(index.find(ApiIndex.classKey("io/grpc/Channel$Impl$Deeper")).has(INTERNAL));
+    assertTrue(index.find(ApiIndex.packageKey("io/grpc/internal")).has(INTERNAL));
+    assertTrue(index.find(ApiIndex.classKey("io/grpc/internal/Util")).has(INTERNAL));
+    assertTrue(index.find(ApiIndex.classKey("io/grpc/internal/testing/Helper")).has(INTERNAL));
+    assertFalse(index.hasAllMembers());
+
+    // snapshots also have entries for members without annotations
+    ApiIndex snapshot = new ApiIndex.Builder(ANNOTATIONS)
+        .withAllMembers()
+        .addClasses(ClassFiles.read(classes, new PackagePrefixes(Arrays.asList("io.grpc"))))
+        .build();
+    assertTrue(snapshot.hasAllMembers());
+    assertEquals(0, snapshot.find(ApiIndex.memberKey("io/grpc/Channel", "authority", "()V")).mask);
+    assertTrue(snapshot.find(ApiIndex.memberKey("io/grpc/Channel$Impl", "<init>", "()V"))
+        .has(INTERNAL));
+  }
+
+  @Test
+  public void checkersUseIndexForClassFiles() throws IOException {
+    Path classes = compileApi();
+    // an index that disagrees with the class files, to show that it is what gets consulted
+    Path indexFile = temporaryFolder.newFile("api.idx").toPath();
+    try (OutputStream out = Files.newOutputStream(indexFile)) {
+      new ApiIndex.Builder(ANNOTATIONS)
+          .add(ApiIndex.classKey("io/grpc/Channel"), Collections.singletonMap(INTERNAL, null))
+          .writeTo(out);
+    }
+
+    CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", classes + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:Index=" + indexFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import io.grpc.Channel;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    new Channel().authority();",
+            "    // classes missing from the index fall back to their own annotations",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    System.out.println(io.grpc.internal.Util.class);",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void cacheStoresOneIndexPerJar() throws IOException {
+    Path jar = jar(compileApi(), "grpc.jar");
+    Path cacheDir = temporaryFolder.getRoot().toPath().resolve("cache");
+
+    ApiIndex index = newIndexCache(cacheDir).load(jar);
+    assertTrue(index.find(ApiIndex.classKey("io/grpc/Channel$Impl")).has(INTERNAL));
+    List<Path> stored = list(cacheDir);
+    assertEquals(1, stored.size());
+    long written = Files.getLastModifiedTime(stored.get(0)).toMillis();
+
+    // another compilation reuses the stored index
+    newIndexCache(cacheDir).load(jar);
+    assertEquals(stored, list(cacheDir));
+    assertEquals(written, Files.getLastModifiedTime(stored.get(0)).toMillis());
+
+    // a jar with different content gets an index of its own
+    Path upgraded = jar(compileApi(), "grpc-upgraded.jar");
+    try (OutputStream out = Files.newOutputStream(upgraded, StandardOpenOption.APPEND)) {
+      out.write(0);
+    }
+    newIndexCache(cacheDir).load(upgraded);
+    assertEquals(2, list(cacheDir).size());
+  }
+
+  @Test
+  public void cacheSkipsJarsWithoutCheckedPackages() throws IOException {
+    Path jar = jar(compileApi(), "grpc.jar");
+    Path cacheDir = temporaryFolder.getRoot().toPath().resolve("cache");
+
+    IndexCache cache = new IndexCache(cacheDir, ANNOTATIONS, Arrays.asList("com.acme"),
+        new PackagePrefixes(Arrays.asList("com.acme")));
+    assertTrue(cache.load(Arrays.asList(jar.toFile())).isEmpty());
+  }
+
+  @Test
+  public void checkersUseCachedIndexForClasspathJars() throws IOException {
+    Path jar = jar(compileApi(), "grpc.jar");
+    Path cacheDir = temporaryFolder.getRoot().toPath().resolve("cache");
+    compileChannelClient(jar, cacheDir, false).doTest();
+
+    // replace the stored index with one that disagrees with the jar, to show that it is used;
+    // the other jars on the classpath have empty indexes
+    List<Path> stored = new ArrayList<>();
+    for (Path file : list(cacheDir)) {
+      if (ApiIndex.open(file).size() > 0) {
+        stored.add(file);
+      }
+    }
+    assertEquals(1, stored.size());
+    try (OutputStream out = Files.newOutputStream(stored.get(0))) {
+      new ApiIndex.Builder(ANNOTATIONS)
+          .add(ApiIndex.classKey("io/grpc/Channel"), Collections.singletonMap(INTERNAL, null))
+          .writeTo(out);
+    }
+    compileChannelClient(jar, cacheDir, true).doTest();
+  }
+
+  @Test
+  public void compilationsShareVerdictsForJars() throws IOException {
+    Path jar = jar(compileApi(), "grpc.jar");
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("stats.json");
+    compileImplClient(jar, statsFile).doTest();
+    assertTrue(read(statsFile), read(statsFile).contains("\"sharedVerdicts\": {\"hits\": 0,"));
+
+    // a second compilation in the same JVM reuses the verdicts of the first
+    compileImplClient(jar, statsFile).doTest();
+    assertTrue(read(statsFile), read(statsFile).contains("\"sharedVerdicts\": {\"hits\": 1,"));
+  }
+
+  @Test
+  public void sharedVerdictsDependOnThePackageInfoJar() throws IOException {
+    Path classes = compileApi();
+    Path packageInfoClasses = temporaryFolder.newFolder().toPath();
+    Path packageInfo = packageInfoClasses.resolve("io/grpc/internal/package-info.class");
+    Files.createDirectories(packageInfo.getParent());
+    Files.move(classes.resolve("io/grpc/internal/package-info.class"), packageInfo);
+    Path jar = jar(classes, "grpc.jar");
+    Path packageInfoJar = jar(packageInfoClasses, "grpc-info.jar");
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("stats.json");
+    compileUtilClient(jar + File.pathSeparator + packageInfoJar, statsFile, true).doTest();
+
+    // the package is split, so the verdicts of its classes also depend on the other jar
+    compileUtilClient(jar.toString(), statsFile, false).doTest();
+    assertTrue(read(statsFile), read(statsFile).contains("\"sharedVerdicts\": {\"hits\": 0,"));
+  }
+
+  @Test
+  public void sharedVerdictsDependOnTheJarContent() throws IOException {
+    Path classes = compileApi();
+    Path jar = jar(classes, "grpc.jar");
+    long size = Files.size(jar);
+    FileTime modified = Files.getLastModifiedTime(jar);
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("stats.json");
+    compileUtilClient(jar.toString(), statsFile, true).doTest();
+
+    // rewrite the jar in place without its package-info, keeping its size and modification time
+    Path packageInfo = classes.resolve("io/grpc/internal/package-info.class");
+    Files.move(packageInfo, packageInfo.resolveSibling("package-inf0.class"));
+    jar(classes, "grpc.jar");
+    Files.setLastModifiedTime(jar, modified);
+    assertEquals(size, Files.size(jar));
+    // javac may still read the jar as it was when this JVM opened it, as the JDK caches open zip
+    // files by name and modification time, so only the shared verdicts are checked
+    JavaCompiler javac = new BaseErrorProneJavaCompiler(
+        ScannerSupplier.fromBugCheckerClasses(InternalChecker.class));
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      javac.getTask(null, fileManager, diagnostic -> {},
+          Arrays.asList(
+              "-proc:none", "-d", temporaryFolder.newFolder().toString(),
+              "-cp", jar + File.pathSeparator + System.getProperty("java.class.path"),
+              "-XepOpt:GrpcApiChecker:SharedCacheSize=100",
+              "-XepOpt:GrpcApiChecker:StatsFile=" + statsFile),
+          null,
+          fileManager.getJavaFileObjectsFromFiles(Arrays.asList(
+              write(temporaryFolder.newFolder().toPath(), "example/Test.java",
+                  "package example;",
+                  "public class Test {",
+                  "  Object util = new io.grpc.internal.Util();",
+                  "}"))))
+          .call();
+    }
+    assertTrue(read(statsFile), read(statsFile).contains("\"sharedVerdicts\": {\"hits\": 0,"));
+  }
+
+  @Test
+  public void cachedIndexesDeferToPackageInfosOfOtherJars() throws IOException {
+    Path classes = compileApi();
+    Path packageInfoClasses = temporaryFolder.newFolder().toPath();
+    Path packageInfo = packageInfoClasses.resolve("io/grpc/internal/package-info.class");
+    Files.createDirectories(packageInfo.getParent());
+    Files.move(classes.resolve("io/grpc/internal/package-info.class"), packageInfo);
+    Path jar = jar(classes, "grpc.jar");
+    Path packageInfoJar = jar(packageInfoClasses, "grpc-info.jar");
+    Path cacheDir = temporaryFolder.getRoot().toPath().resolve("cache");
+
+    // the index of grpc.jar has entries for the classes of the package, without its annotations
+    assertEquals(0, newIndexCache(cacheDir).load(jar)
+        .find(ApiIndex.classKey("io/grpc/internal/Util")).mask);
+    CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", jar + File.pathSeparator + packageInfoJar
+                + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:CacheDir=" + cacheDir)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import io.grpc.internal.*;",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import io.grpc.internal.testing.*;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    new Util();",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    new Helper();",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void checkersUseSnapshotOfGrpcVersion() throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_VERSION, "1.2.3");
+    Path jar = jar(compileApi(), "grpc-api.jar", manifest);
+    // a snapshot that disagrees with the class files, to show that it is what gets consulted
+    Path snapshots = temporaryFolder.newFolder("snapshots").toPath();
+    try (OutputStream out = Files.newOutputStream(ApiSnapshots.file(snapshots, "1.2.3"))) {
+      new ApiIndex.Builder(ANNOTATIONS)
+          .add(ApiIndex.classKey("io/grpc/Channel"), Collections.singletonMap(INTERNAL, null))
+          .writeTo(out);
+    }
+
+    CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", jar + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:Snapshots=" + snapshots)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import io.grpc.Channel;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    new Channel().authority();",
+            "  }",
+            "}")
+        .doTest();
+  }
+
+  @Test
+  public void snapshotsOnlyAnswerForJarsOfTheirRelease() throws IOException {
+    Path classes = compileApi();
+    Path olderClasses = temporaryFolder.newFolder().toPath();
+    Files.createDirectories(olderClasses.resolve("io/grpc"));
+    try (Stream<Path> files = Files.list(classes.resolve("io/grpc"))) {
+      for (Path file : files.filter(f -> f.getFileName().toString().startsWith("Channel"))
+          .collect(Collectors.toList())) {
+        Files.move(file, olderClasses.resolve("io/grpc").resolve(file.getFileName()));
+      }
+    }
+    Path jar = jar(classes, "grpc-api-1.2.3.jar");
+    Path olderJar = jar(olderClasses, "grpc-core-1.2.2.jar");
+    Path snapshots = temporaryFolder.newFolder("snapshots").toPath();
+    try (OutputStream out = Files.newOutputStream(ApiSnapshots.file(snapshots, "1.2.3"))) {
+      new ApiIndex.Builder(ANNOTATIONS)
+          .add(ApiIndex.classKey("io/grpc/Channel"), Collections.singletonMap(INTERNAL, null))
+          .writeTo(out);
+    }
+
+    // Channel comes from a jar of another release, so its own annotations apply
+    compileChannelClient(
+        jar + File.pathSeparator + olderJar, "-XepOpt:GrpcApiChecker:Snapshots=" + snapshots,
+        false).doTest();
+  }
+
+  @Test
+  public void snapshotVersionFallsBackToFileName() {
+    assertEquals("1.60.0", ApiSnapshots.version("grpc-api-1.60.0.jar", new Manifest()));
+    assertNull(ApiSnapshots.version("grpc-api.jar", null));
+  }
+
+  @Test
+  public void snapshotsAreDiffed() throws IOException {
+    ApiIndex oldSnapshot = new ApiIndex.Builder(ANNOTATIONS)
+        .withAllMembers()
+        .add(ApiIndex.classKey("io/grpc/Channel"), Collections.emptyMap())
+        .add(ApiIndex.memberKey("io/grpc/Channel", "authority", "()V"), Collections.emptyMap())
+        .add(ApiIndex.memberKey("io/grpc/Channel", "withTuning", "(I)V"),
+            Collections.singletonMap(EXPERIMENTAL, "https://example.com/tuning"))
+        .add(ApiIndex.classKey("io/grpc/Channel$Impl"), Collections.singletonMap(INTERNAL, null))
+        .add(ApiIndex.classKey("io/grpc/Unused"), Collections.singletonMap(INTERNAL, null))
+        .build();
+    ApiIndex newSnapshot = new ApiIndex.Builder(ANNOTATIONS)
+        .withAllMembers()
+        .add(ApiIndex.classKey("io/grpc/Channel"), Collections.emptyMap())
+        .add(ApiIndex.memberKey("io/grpc/Channel", "authority", "()V"),
+            Collections.singletonMap(INTERNAL, null))
+        .add(ApiIndex.classKey("io/grpc/Unused"), Collections.emptyMap())
+        .build();
+
+    assertEquals(
+        Arrays.asList(
+            "io.grpc.Channel#authority\t-\tio.grpc.Internal",
+            "io.grpc.Channel#withTuning\tio.grpc.ExperimentalApi\tabsent",
+            "io.grpc.Channel$Impl\tio.grpc.Internal\tabsent",
+            "io.grpc.Unused\tio.grpc.Internal\t-"),
+        SnapshotDiffTool.diff(oldSnapshot, newSnapshot, null));
+    assertEquals(
+        Arrays.asList("io.grpc.Channel#withTuning\tio.grpc.ExperimentalApi\tabsent"),
+        SnapshotDiffTool.diff(oldSnapshot, newSnapshot,
+            new HashSet<>(Arrays.asList("io.grpc.Channel", "io.grpc.Channel#withTuning"))));
+  }
+
+  private CompilationTestHelper compileImplClient(Path jar, Path statsFile) {
+    return CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", jar + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:SharedCacheSize=100",
+            "-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: GrpcInternal",
+            "import io.grpc.Channel.Impl;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: GrpcInternal",
+            "    new Impl();",
+            "  }",
+            "}");
+  }
+
+  private CompilationTestHelper compileUtilClient(
+      String classpath, Path statsFile, boolean internal) {
+    String bug = internal ? "// BUG: Diagnostic contains: GrpcInternal" : "";
+    return CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", classpath + File.pathSeparator + System.getProperty("java.class.path"),
+            "-XepOpt:GrpcApiChecker:SharedCacheSize=100",
+            "-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    " + bug,
+            "    new io.grpc.internal.Util();",
+            "  }",
+            "}");
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  private CompilationTestHelper compileChannelClient(Path jar, Path cacheDir, boolean internal) {
+    return compileChannelClient(
+        jar.toString(), "-XepOpt:GrpcApiChecker:CacheDir=" + cacheDir, internal);
+  }
+
+  private CompilationTestHelper compileChannelClient(
+      String classpath, String option, boolean internal) {
+    String bug = internal ? "// BUG: Diagnostic contains: GrpcInternal" : "";
+    return CompilationTestHelper.newInstance(InternalChecker.class, getClass())
+        .setArgs(
+            "-cp", classpath + File.pathSeparator + System.getProperty("java.class.path"),
+            option)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            bug,
+            "import io.grpc.Channel;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    " + bug,
+            "    new Channel().authority();",
+            "  }",
+            "}");
+  }
+
+  private IndexCache newIndexCache(Path cacheDir) {
+    return new IndexCache(cacheDir, ANNOTATIONS, Arrays.asList("io.grpc"),
+        new PackagePrefixes(Arrays.asList("io.grpc")));
+  }
+
+  private static List<Path> list(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private Path jar(Path classes, String name) throws IOException {
+    return jar(classes, name, new Manifest());
+  }
+
+  private Path jar(Path classes, String name, Manifest manifest) throws IOException {
+    Path jar = temporaryFolder.getRoot().toPath().resolve(name);
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(classes)) {
+      files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      for (Path file : files) {
+        out.putNextEntry(new JarEntry(classes.relativize(file).toString().replace('\\', '/')));
+        out.write(Files.readAllBytes(file));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private Path compileApi() throws IOException {
+    Path sources = temporaryFolder.newFolder().toPath();
+    Path classes = temporaryFolder.newFolder().toPath();
+    List<File> files = new ArrayList<>();
+    files.add(write(sources, "io/grpc/Internal.java",
+        "package io.grpc;",
+        "public @interface Internal {}"));
+    files.add(write(sources, "io/grpc/ExperimentalApi.java",
+        "package io.grpc;",
+        "public @interface ExperimentalApi {",
+        "  String value() default \"\";",
+        "}"));
+    files.add(write(sources, "io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public void authority() {}",
+        "  @ExperimentalApi(\"https://example.com/tuning\")",
+        "  public void withTuning(int value) {}",
+        "  @Internal",
+        "  public static class Impl {",
+        "    public static class Deeper {}",
+        "  }",
+        "}"));
+    files.add(write(sources, "io/grpc/internal/package-info.java",
+        "@io.grpc.Internal",
+        "package io.grpc.internal;"));
+    files.add(write(sources, "io/grpc/internal/Util.java",
+        "package io.grpc.internal;",
+        "public class Util {}"));
+    files.add(write(sources, "io/grpc/internal/testing/Helper.java",
+        "package io.grpc.internal.testing;",
+        "public class Helper {}"));
+
+    JavacTool javac = JavacTool.create();
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+      boolean ok = javac.getTask(
+          null, fileManager, null, Arrays.asList("-d", classes.toString()), null, units).call();
+      assertTrue("fixture compilation failed", ok);
+    }
+    return classes;
+  }
+
+  private static File write(Path root, String path, String... lines) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file.toFile();
+  }
+}
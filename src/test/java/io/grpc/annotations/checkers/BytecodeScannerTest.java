@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.tools.javac.api.JavacTool;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BytecodeScanner}. */
+@RunWith(JUnit4.class)
+public class BytecodeScannerTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path api;
+  private BytecodeScanner scanner;
+
+  @Before
+  public void setUp() throws IOException {
+    api = compile(null,
+        "io/grpc/Internal.java",
+        "package io.grpc;",
+        "public @interface Internal {}",
+        "io/grpc/ExperimentalApi.java",
+        "package io.grpc;",
+        "public @interface ExperimentalApi {",
+        "  String value() default \"\";",
+        "}",
+        "io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public static final Object DEFAULT = new Object();",
+        "  public void authority() {}",
+        "  @ExperimentalApi(\"https://example.com/tuning\")",
+        "  public void withTuning(int value) {}",
+        "  @Internal",
+        "  public static class Impl {}",
+        "}",
+        "io/grpc/internal/package-info.java",
+        "@io.grpc.Internal",
+        "package io.grpc.internal;",
+        "io/grpc/internal/Util.java",
+        "package io.grpc.internal;",
+        "public class Util {",
+        "  public static void run() {}",
+        "}");
+    scanner = new BytecodeScanner(ApiIndexTool.build(ApiIndexTool.DEFAULT_ANNOTATIONS,
+        new PackagePrefixes(Arrays.asList("io.grpc")), Arrays.asList(api)).build());
+  }
+
+  @Test
+  public void reportsAnnotatedClassesAndMembers() throws IOException {
+    Path client = compile(api,
+        "example/Client.java",
+        "package example;",
+        "import io.grpc.Channel;",
+        "public class Client {",
+        "  void run(Channel channel) {",
+        "    channel.authority();",
+        "    System.out.println(Channel.DEFAULT);",
+        "    channel.withTuning(1);",
+        "    channel.withTuning(2);",
+        "    new Channel.Impl();",
+        "    io.grpc.internal.Util.run();",
+        "  }",
+        "}");
+
+    List<String> findings = new ArrayList<>();
+    for (BytecodeScanner.Finding finding : scanner.scan(client)) {
+      findings.add(finding.checkName + " " + finding.api
+          + (finding.link == null ? "" : " " + finding.link));
+    }
+    Collections.sort(findings);
+    assertEquals(
+        Arrays.asList(
+            "GrpcExperimentalApi io.grpc.Channel#withTuning https://example.com/tuning",
+            "GrpcInternal io.grpc.Channel$Impl",
+            "GrpcInternal io.grpc.internal.Util"),
+        findings);
+  }
+
+  @Test
+  public void allowedApisAreNotReported() throws IOException {
+    Path client = compile(api,
+        "example/Client.java",
+        "package example;",
+        "public class Client {",
+        "  void run(io.grpc.Channel channel) {",
+        "    channel.withTuning(1);",
+        "    new io.grpc.Channel.Impl();",
+        "  }",
+        "}");
+
+    BytecodeScanner allowing = new BytecodeScanner(ApiIndexTool.build(
+        ApiIndexTool.DEFAULT_ANNOTATIONS, new PackagePrefixes(Arrays.asList("io.grpc")),
+        Arrays.asList(api)).build(), Arrays.asList("io.grpc.Channel#withTuning"));
+    List<BytecodeScanner.Finding> findings = allowing.scan(client);
+    assertEquals(1, findings.size());
+    assertEquals("io.grpc.Channel$Impl", findings.get(0).api);
+  }
+
+  @Test
+  public void scansJarsInParallel() throws IOException, InterruptedException {
+    Path stable = jar(compile(api,
+        "example/Stable.java",
+        "package example;",
+        "public class Stable {",
+        "  void run(io.grpc.Channel channel) {",
+        "    channel.authority();",
+        "  }",
+        "}"), "stable.jar");
+    Path internal = jar(compile(api,
+        "example/UsesInternal.java",
+        "package example;",
+        "public class UsesInternal {",
+        "  Object util = new io.grpc.internal.Util();",
+        "}"), "internal.jar");
+
+    List<BytecodeScanner.Finding> findings =
+        scanner.scan(Arrays.asList(stable, internal, stable), 2);
+    assertEquals(1, findings.size());
+    BytecodeScanner.Finding finding = findings.get(0);
+    assertEquals(internal + "!/example/UsesInternal.class", finding.source);
+    assertTrue(finding.toString(),
+        finding.toString().endsWith(": [GrpcInternal] @Internal should not be used in application"
+            + " code: io.grpc.internal.Util"));
+  }
+
+  /**
+   * Compiles sources, each given as its path followed by its lines, and returns the directory of
+   * their class files.
+   */
+  private Path compile(Path classpath, String... pathsAndLines) throws IOException {
+    Path sources = temporaryFolder.newFolder().toPath();
+    Path classes = temporaryFolder.newFolder().toPath();
+    Map<String, List<String>> units = new LinkedHashMap<>();
+    List<String> lines = null;
+    for (String line : pathsAndLines) {
+      if (line.endsWith(".java")) {
+        lines = new ArrayList<>();
+        units.put(line, lines);
+      } else {
+        lines.add(line);
+      }
+    }
+    List<File> files = new ArrayList<>();
+    for (Map.Entry<String, List<String>> unit : units.entrySet()) {
+      Path file = sources.resolve(unit.getKey());
+      Files.createDirectories(file.getParent());
+      Files.write(file, unit.getValue(), StandardCharsets.UTF_8);
+      files.add(file.toFile());
+    }
+
+    List<String> options = new ArrayList<>(Arrays.asList("-d", classes.toString()));
+    if (classpath != null) {
+      options.add("-cp");
+      options.add(classpath.toString());
+    }
+    JavacTool javac = JavacTool.create();
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      Iterable<? extends JavaFileObject> objects = fileManager.getJavaFileObjectsFromFiles(files);
+      assertTrue("fixture compilation failed",
+          javac.getTask(null, fileManager, null, options, null, objects).call());
+    }
+    return classes;
+  }
+
+  private Path jar(Path classes, String name) throws IOException {
+    Path jar = temporaryFolder.getRoot().toPath().resolve(name);
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(classes)) {
+      files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (Path file : files) {
+        out.putNextEntry(new JarEntry(classes.relativize(file).toString().replace('\\', '/')));
+        out.write(Files.readAllBytes(file));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.tools.javac.api.JavacTool;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.tools.StandardJavaFileManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CheckerDaemon}. */
+@RunWith(JUnit4.class)
+public class CheckerDaemonTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path sources;
+  private CheckerDaemon daemon;
+
+  @Before
+  public void setUp() throws IOException {
+    sources = temporaryFolder.newFolder("src").toPath();
+    write("io/grpc/Internal.java",
+        "package io.grpc;",
+        "public @interface Internal {}");
+    write("io/grpc/ExperimentalApi.java",
+        "package io.grpc;",
+        "public @interface ExperimentalApi {",
+        "  String value() default \"\";",
+        "}");
+    write("io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public static final int STABLE = 0;",
+        "  @Internal",
+        "  public static final int INTERNAL = 1;",
+        "}");
+    daemon = new CheckerDaemon(Arrays.asList("-sourcepath", sources.toString()));
+  }
+
+  @Test
+  public void resultsAreKeptUntilTheFileChanges() throws IOException {
+    Path test = write("example/Test.java",
+        "package example;",
+        "",
+        "public class Test {",
+        "  int stable = io.grpc.Channel.STABLE;",
+        "  int internal = io.grpc.Channel.INTERNAL;",
+        "}");
+
+    List<String> response = daemon.check(test);
+    assertEquals(response.toString(), 2, response.size());
+    assertTrue(response.get(0), response.get(0).startsWith(
+        "{\"rule\": \"GrpcInternal\", \"severity\": \"ERROR\", \"file\": "));
+    assertTrue(response.get(0), response.get(0).contains("\"line\": 5, \"column\": 33, "));
+    assertTrue(response.get(1), response.get(1).contains(
+        "\"done\": true, \"diagnostics\": 1, \"cached\": false"));
+
+    response = daemon.check(test);
+    assertEquals(response.toString(), 2, response.size());
+    assertTrue(response.get(1), response.get(1).contains("\"diagnostics\": 1, \"cached\": true"));
+
+    write("example/Test.java",
+        "package example;",
+        "",
+        "public class Test {",
+        "  int stable = io.grpc.Channel.STABLE;",
+        "}");
+    response = daemon.check(test);
+    assertEquals(response.toString(), 1, response.size());
+    assertTrue(response.get(0), response.get(0).contains("\"diagnostics\": 0, \"cached\": false"));
+  }
+
+  @Test
+  public void resultsAreDroppedWhenASourceTheyReadChanges() throws IOException {
+    Path test = write("example/Test.java",
+        "package example;",
+        "",
+        "public class Test {",
+        "  int internal = io.grpc.Channel.INTERNAL;",
+        "}");
+    List<String> response = daemon.check(test);
+    assertEquals(response.toString(), 2, response.size());
+
+    write("io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public static final int INTERNAL = 1;",
+        "}");
+    response = daemon.check(test);
+    assertEquals(response.toString(), 1, response.size());
+    assertTrue(response.get(0), response.get(0).contains("\"diagnostics\": 0, \"cached\": false"));
+  }
+
+  @Test
+  public void resultsAreDroppedWhenAClassInAClasspathDirectoryChanges()
+      throws IOException, InterruptedException {
+    Path classes = temporaryFolder.newFolder("classes").toPath();
+    Path channel = sources.resolve("io/grpc/Channel.java");
+    compile(classes, channel);
+    daemon = new CheckerDaemon(Arrays.asList("-classpath", classes.toString()));
+    Path test = temporaryFolder.newFolder("other").toPath().resolve("Test.java");
+    Files.write(test, Arrays.asList(
+        "public class Test {",
+        "  int internal = io.grpc.Channel.INTERNAL;",
+        "}"), StandardCharsets.UTF_8);
+    List<String> response = daemon.check(test);
+    assertEquals(response.toString(), 2, response.size());
+    assertTrue(daemon.check(test).get(1).contains("\"cached\": true"));
+
+    write("io/grpc/Channel.java",
+        "package io.grpc;",
+        "public class Channel {",
+        "  public static final int INTERNAL = 1;",
+        "}");
+    compile(classes, channel);
+    // the change reaches the daemon through the watch service, which may take a moment
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(15);
+    response = daemon.check(test);
+    while (response.get(response.size() - 1).contains("\"cached\": true")
+        && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+      response = daemon.check(test);
+    }
+    assertEquals(response.toString(), 1, response.size());
+    assertTrue(response.get(0), response.get(0).contains("\"diagnostics\": 0, \"cached\": false"));
+  }
+
+  @Test
+  public void compilationErrorsAreReported() throws IOException {
+    Path test = write("example/Test.java",
+        "package example;",
+        "",
+        "public class Test {",
+        "  int missing = io.grpc.Channel.MISSING;",
+        "}");
+
+    List<String> response = daemon.check(test);
+    assertTrue(response.get(0), response.get(0).startsWith(
+        "{\"rule\": \"javac\", \"severity\": \"ERROR\", "));
+  }
+
+  @Test
+  public void commandsAreAnsweredUntilQuit() throws IOException {
+    Path test = write("example/Test.java",
+        "package example;",
+        "",
+        "public class Test {}");
+    StringWriter out = new StringWriter();
+    daemon.serve(
+        new BufferedReader(new StringReader(String.join("\n",
+            "check " + test,
+            "",
+            "frobnicate",
+            "invalidate",
+            "quit",
+            "check " + test))),
+        out);
+
+    String[] lines = out.toString().split("\n");
+    assertEquals(out.toString(), 3, lines.length);
+    assertTrue(lines[0], lines[0].contains("\"done\": true, \"diagnostics\": 0"));
+    assertEquals("{\"done\": true, \"error\": \"Unknown command: frobnicate\"}", lines[1]);
+    assertEquals("{\"done\": true, \"invalidated\": 1}", lines[2]);
+  }
+
+  private void compile(Path classes, Path file) throws IOException {
+    JavacTool javac = JavacTool.create();
+    try (StandardJavaFileManager fileManager =
+        javac.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+      boolean ok = javac.getTask(null, fileManager, null,
+          Arrays.asList("-d", classes.toString(), "-sourcepath", sources.toString()), null,
+          fileManager.getJavaFileObjects(file.toFile())).call();
+      assertTrue("fixture compilation failed", ok);
+    }
+  }
+
+  private Path write(String path, String... lines) throws IOException {
+    Path file = sources.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    return file;
+  }
+}
@@ -16,15 +16,31 @@
 
 package io.grpc.annotations.checkers;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import com.google.errorprone.CompilationTestHelper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 @RunWith(JUnit4.class)
 public class ExperimentalApiCheckerTest {
 
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private CompilationTestHelper compiler;
 
   @Before
@@ -120,6 +136,72 @@ public class ExperimentalApiCheckerTest {
         .doTest();
   }
 
+  @Test
+  public void negativeAnnotationNotOnClasspath() throws IOException {
+    Path statsFile = temporaryFolder.getRoot().toPath().resolve("checkers.json");
+    CompilationTestHelper.newInstance(ExperimentalApiChecker.class, getClass())
+        .setArgs("-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String args[]) {",
+            "    System.out.println(args);",
+            "  }",
+            "}")
+        .doTest();
+
+    // no symbol is looked up, so the verdict cache is never consulted
+    String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    assertTrue(json, json.contains("\"symbolsResolved\": 0,"));
+    assertTrue(json, json.contains("\"verdictCache\": {\"hits\": 0, \"misses\": 0}"));
+  }
+
+  @Test
+  public void repeatedLookupsAreCacheHits() throws IOException {
+    long[] once = verdictCacheCounts("    new io.grpc.StableApi().foo();");
+    long[] twice = verdictCacheCounts(
+        "    new io.grpc.StableApi().foo();",
+        "    new io.grpc.StableApi().foo();");
+
+    // the symbols of the second statement are all known from the first
+    assertEquals(once[1], twice[1]);
+    assertTrue(once[0] + " then " + twice[0], twice[0] > once[0]);
+  }
+
+  /** Compiles a method with the given statements and returns the verdict cache hits and misses. */
+  private long[] verdictCacheCounts(String... statements) throws IOException {
+    Path statsFile = temporaryFolder.newFile().toPath();
+    List<String> lines = new ArrayList<>(Arrays.asList(
+        "package example;",
+        "",
+        "public class Test {",
+        "  public static void main(String args[]) {"));
+    lines.addAll(Arrays.asList(statements));
+    lines.addAll(Arrays.asList("  }", "}"));
+    CompilationTestHelper.newInstance(ExperimentalApiChecker.class, getClass())
+        .setArgs("-XepOpt:GrpcApiChecker:StatsFile=" + statsFile)
+        .addSourceLines("io/grpc/ExperimentalApi.java",
+            "package io.grpc;",
+            "",
+            "public @interface ExperimentalApi {}")
+        .addSourceLines("io/grpc/StableApi.java",
+            "package io.grpc;",
+            "",
+            "public class StableApi {",
+            "  public void foo() {}",
+            "}")
+        .addSourceLines("example/Test.java", lines.toArray(new String[0]))
+        .doTest();
+
+    String json = new String(Files.readAllBytes(statsFile), StandardCharsets.UTF_8);
+    Matcher matcher =
+        Pattern.compile("\"verdictCache\": \\{\"hits\": (\\d+), \"misses\": (\\d+)\\}")
+            .matcher(json);
+    assertTrue(json, matcher.find());
+    return new long[] {Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))};
+  }
+
   @Test
   public void negativeInstantiationStableApi() {
     compiler
@@ -460,4 +542,36 @@ public class ExperimentalApiCheckerTest {
             "}")
         .doTest();
   }
+
+  @Test
+  public void linkIsReadFromValueElement() {
+    compiler
+        .setArgs("-XepOpt:GrpcApiChecker:ExperimentalApiAnnotations=io.grpc.Tracked")
+        .addSourceLines("io/grpc/Tracked.java",
+            "package io.grpc;",
+            "",
+            "public @interface Tracked {",
+            "  String since();",
+            "  String value();",
+            "}")
+        .addSourceLines("io/grpc/TrackedApi.java",
+            "package io.grpc;",
+            "",
+            "public class TrackedApi {",
+            "  @Tracked(since = \"1.0\", value = \"https://example.com/tracked\")",
+            "  public static void run() {}",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "public class Test {",
+            "  public static void main(String[] args) {",
+            "    // BUG: Diagnostic contains: (see https://example.com/tracked)",
+            "    io.grpc.TrackedApi.run();",
+            "    // BUG: Diagnostic contains: (see https://example.com/tracked)",
+            "    io.grpc.TrackedApi.run();",
+            "  }",
+            "}")
+        .doTest();
+  }
 }
@@ -456,4 +456,41 @@ public class InternalCheckerTest {
             "}")
         .doTest();
   }
+
+  // ----- method hierarchy tests -----
+  @Test
+  public void negativeOverrideOfStableApiInInternalClass() {
+    compiler
+        .addSourceLines("io/grpc/StableCall.java",
+            "package io.grpc;",
+            "",
+            "public abstract class StableCall {",
+            "  public abstract void start();",
+            "}")
+        .addSourceLines("io/grpc/InternalCall.java",
+            "package io.grpc;",
+            "",
+            "@Internal",
+            "public class InternalCall extends StableCall {",
+            "  @Override",
+            "  public void start() {}",
+            "  public void internalOnly() {}",
+            "}")
+        .addSourceLines("example/Test.java",
+            "package example;",
+            "",
+            "// BUG: Diagnostic contains: ",
+            "import io.grpc.InternalCall;",
+            "",
+            "public class Test {",
+            "  // BUG: Diagnostic contains: ",
+            "  public void foo(InternalCall call) {",
+            "    call.start();",
+            "    call.start();",
+            "    // BUG: Diagnostic contains: ",
+            "    call.internalOnly();",
+            "  }",
+            "}")
+        .doTest();
+  }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 The gRPC Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.grpc.annotations.checkers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SharedVerdicts}. */
+@RunWith(JUnit4.class)
+public class SharedVerdictsTest {
+
+  @Test
+  public void classesAreKeptUntilEvicted() {
+    SharedVerdicts shared = new SharedVerdicts(32);
+    SharedVerdicts.ClassVerdicts channel = shared.forClass("grpc.jar!/io/grpc/Channel.class");
+    channel.put("", Collections.singletonMap("io.grpc.ExperimentalApi", "link"));
+    assertSame(channel, shared.forClass("grpc.jar!/io/grpc/Channel.class"));
+    assertNull(channel.get("authority:()Ljava/lang/String;"));
+
+    for (int i = 0; i < 1000; i++) {
+      shared.forClass("grpc.jar!/io/grpc/Class" + i + ".class");
+    }
+    assertEquals(32, shared.size());
+    assertNull(shared.forClass("grpc.jar!/io/grpc/Channel.class").get(""));
+  }
+
+  @Test
+  public void instancesAreSharedByAnnotationTypes() {
+    assertSame(
+        SharedVerdicts.forAnnotationTypes(ApiIndexTool.DEFAULT_ANNOTATIONS, 100),
+        SharedVerdicts.forAnnotationTypes(ApiIndexTool.DEFAULT_ANNOTATIONS, 100));
+  }
+}